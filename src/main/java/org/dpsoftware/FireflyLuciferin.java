@@ -32,21 +32,32 @@ import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.audio.AudioLoopback;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.grabber.CaptureContext;
+import org.dpsoftware.grabber.FrameSmoother;
 import org.dpsoftware.grabber.GStreamerGrabber;
 import org.dpsoftware.grabber.ImageProcessor;
+import org.dpsoftware.grabber.ParallelAveraging;
 import org.dpsoftware.gui.GUIManager;
-import org.dpsoftware.gui.controllers.DevicesTabController;
 import org.dpsoftware.gui.controllers.SettingsController;
 import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.dpsoftware.managers.DeviceRegistry;
+import org.dpsoftware.managers.FramerateController;
 import org.dpsoftware.managers.MQTTManager;
 import org.dpsoftware.managers.PipelineManager;
+import org.dpsoftware.managers.SchedulerManager;
 import org.dpsoftware.managers.StorageManager;
 import org.dpsoftware.managers.UpgradeManager;
+import org.dpsoftware.managers.dto.LatencyDto;
 import org.dpsoftware.managers.dto.MqttFramerateDto;
+import org.dpsoftware.managers.dto.SerialMetricsDto;
 import org.dpsoftware.managers.dto.StateStatusDto;
 import org.dpsoftware.network.MessageClient;
 import org.dpsoftware.network.MessageServer;
+import org.dpsoftware.output.MemoryOutputSink;
+import org.dpsoftware.output.OutputSink;
 import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.FrameLatency;
+import org.dpsoftware.utilities.MetricsRegistry;
 import org.dpsoftware.utilities.PropertiesLoader;
 import org.freedesktop.gstreamer.Bin;
 import org.freedesktop.gstreamer.Gst;
@@ -61,7 +72,6 @@ import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.util.List;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -82,12 +92,6 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     // 3 thread is enough for 30FPS with GPU Hardware Acceleration and uses nearly no CPU
     private int threadPoolNumber;
     private int executorNumber;
-    // Calculate Screen Capture Framerate and how fast your microcontroller can consume it
-    public static float FPS_CONSUMER_COUNTER;
-    public static float FPS_PRODUCER_COUNTER;
-    public static float FPS_CONSUMER = 0;
-    public static float FPS_PRODUCER = 0;
-    public static float FPS_GW_CONSUMER = 0;
     public static SimpleDateFormat formatter;
     // Serial output stream
     public static SerialPort serial;
@@ -97,8 +101,10 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     public static Configuration config;
     // Start and Stop threads
     public static boolean RUNNING = false;
-    // This queue orders elements FIFO. Producer offers some data, consumer throws data to the Serial port
-    public static BlockingQueue<Color[]> sharedQueue;
+    // Single slot mailbox, producers overwrite the frame, consumer throws the newest one to the Serial port
+    public static FrameMailbox sharedQueue;
+    // Where the consumer sends the frames, chosen at pipeline start
+    public static volatile OutputSink outputSink;
     // Image processing
     ImageProcessor imageProcessor;
     // Number of LEDs on the strip
@@ -110,7 +116,11 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     public static GUIManager guiManager;
     public static boolean communicationError = false;
     public static boolean serialConnected = false;
-    private static Color colorInUse;
+    // The connected device reported it can decode compressed serial packets
+    public static volatile boolean serialCompressionSupported = false;
+    private static LEDFrame colorInUse;
+    // Consumer side frame, LEDs reordered using orientation and start offset
+    private LEDFrame orderedLeds;
     public static int gpio = 0; // 0 means not set, firmware discards this value
     public static int baudRate = 0;
     public static int whiteTemperature = 0;
@@ -138,7 +148,8 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
             log.error("Please configure the app.");
             FireflyLuciferin.exit();
         }
-        sharedQueue = new LinkedBlockingQueue<>(config.getLedMatrixInUse(ledMatrixInUse).size() * 30);
+        sharedQueue = new FrameMailbox();
+        outputSink = PipelineManager.createOutputSink();
         imageProcessor = new ImageProcessor(true);
         if (CommonUtility.isSingleDeviceMainInstance()) {
             MessageServer.messageServer = new MessageServer();
@@ -217,7 +228,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
         guiManager = new GUIManager(stage);
         guiManager.initTray();
         getFPS();
-        imageProcessor.calculateBorders();
+        FramerateController.start();
         // If multi monitor, first instance, single instance, start message server
         if (CommonUtility.isSingleDeviceMainInstance()) {
             MessageServer.startMessageServer();
@@ -235,7 +246,6 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
             manageSolidLed();
         }
         // Create a task that runs every 5 seconds, reconnect serial devices when needed
-        ScheduledExecutorService serialscheduledExecutorService = Executors.newScheduledThreadPool(1);
         Runnable framerateTask = () -> {
             if (!serialConnected) {
                 if (CommonUtility.isSingleDeviceMainInstance() || !CommonUtility.isSingleDeviceMultiScreen()) {
@@ -243,7 +253,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                 }
             }
         };
-        serialscheduledExecutorService.scheduleAtFixedRate(framerateTask, 0, 5, TimeUnit.SECONDS);
+        SchedulerManager.scheduleBlockingAtFixedRate(framerateTask, 0, 5, TimeUnit.SECONDS);
 
     }
 
@@ -257,8 +267,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                 || (config.getMultiMonitor() == 3 && JavaFXStarter.whoAmI == 3)) {
             timeToWait = 15;
         }
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        executor.schedule(() -> guiManager.startCapturingThreads(), timeToWait, TimeUnit.SECONDS);
+        SchedulerManager.schedule(() -> guiManager.startCapturingThreads(), timeToWait, TimeUnit.SECONDS);
 
     }
 
@@ -269,6 +278,8 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     void launchAdvancedGrabber(ScheduledExecutorService scheduledExecutorService) {
 
         imageProcessor.initGStreamerLibraryPaths();
+        // Frames are produced by the single GStreamer streaming thread
+        ParallelAveraging.setProducerThreads(1);
         //System.setProperty("gstreamer.GNative.nameFormats", "%s-0|lib%s-0|%s|lib%s");
         Gst.init(Constants.SCREEN_GRABBER, "");
         AtomicInteger pipelineRetry = new AtomicInteger();
@@ -279,7 +290,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
         }
         String finalLinuxParams = linuxParams;
         scheduledExecutorService.scheduleAtFixedRate(() -> {
-            if (!PipelineManager.pipelineStopping && RUNNING && FPS_PRODUCER_COUNTER == 0) {
+            if (!PipelineManager.pipelineStopping && RUNNING && MetricsRegistry.FRAMES_PRODUCED.sum() == 0) {
                 pipelineRetry.getAndIncrement();
                 if (pipe == null || !pipe.isPlaying() || pipelineRetry.get() >= 2) {
                     if (pipe != null) {
@@ -324,6 +335,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     void launchStandardGrabber(ScheduledExecutorService scheduledExecutorService) throws AWTException {
 
         Robot robot = null;
+        ParallelAveraging.setProducerThreads(executorNumber);
 
         for (int i = 0; i < executorNumber; i++) {
             // One AWT Robot instance every 3 threads seems to be the sweet spot for performance/memory.
@@ -331,11 +343,12 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                 robot = new Robot();
                 log.info(Constants.SPAWNING_ROBOTS);
             }
-            Robot finalRobot = robot;
+            // Every producer owns its capture context, producers don't share image buffers
+            CaptureContext captureContext = ImageProcessor.createCaptureContext(robot);
             // No need for completablefuture here, we wrote the queue with a producer and we forget it
             scheduledExecutorService.scheduleAtFixedRate(() -> {
-                if (RUNNING) {
-                    producerTask(finalRobot);
+                if (RUNNING && FramerateController.tryAcquireFrame()) {
+                    producerTask(captureContext);
                 }
             }, 0, 25, TimeUnit.MILLISECONDS);
         }
@@ -377,30 +390,47 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
 
         AtomicInteger framerateAlert = new AtomicInteger();
         AtomicBoolean notified = new AtomicBoolean(false);
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
 
         // Create a task that runs every 5 seconds
         Runnable framerateTask = () -> {
-            if (FPS_PRODUCER_COUNTER > 0 || FPS_CONSUMER_COUNTER > 0) {
+            MetricsRegistry.Snapshot snapshot = MetricsRegistry.snapshotAndReset();
+            long produced = snapshot.get(MetricsRegistry.FRAMES_PRODUCED);
+            long consumed = snapshot.get(MetricsRegistry.FRAMES_CONSUMED);
+            Map<String, LatencyDto> latency = null;
+            SerialMetricsDto serial = null;
+            if (produced > 0 || consumed > 0) {
                 if (CommonUtility.isSingleDeviceOtherInstance() && FireflyLuciferin.config.getEffect().contains(Constants.MUSIC_MODE)) {
-                    FPS_PRODUCER = FPS_GW_CONSUMER;
+                    MetricsRegistry.FPS_PRODUCER.set(MetricsRegistry.FPS_GW_CONSUMER.get());
                 } else {
-                    FPS_PRODUCER = FPS_PRODUCER_COUNTER / 5;
+                    MetricsRegistry.FPS_PRODUCER.set(produced / 5F);
                 }
-                FPS_CONSUMER = FPS_CONSUMER_COUNTER / 5;
+                MetricsRegistry.FPS_CONSUMER.set(consumed / 5F);
+                latency = FrameLatency.fromSnapshot(snapshot);
+                serial = SerialWriter.metricsFromSnapshot(snapshot, 5);
                 CommonUtility.conditionedLog(this.getClass().getName(),
-                        " --* Producing @ " + FPS_PRODUCER + " FPS *-- " + " --* Consuming @ " + FPS_GW_CONSUMER + " FPS *-- ");
-                FPS_CONSUMER_COUNTER = FPS_PRODUCER_COUNTER = 0;
+                        " --* Producing @ " + MetricsRegistry.FPS_PRODUCER.get() + " FPS *-- " + " --* Consuming @ " + MetricsRegistry.FPS_GW_CONSUMER.get() + " FPS *-- "
+                        + " --* Overwritten " + snapshot.get(MetricsRegistry.FRAMES_OVERWRITTEN) + " Dropped " + snapshot.get(MetricsRegistry.FRAMES_DROPPED) + " frames *-- "
+                        + (latency != null ? FrameLatency.toLogString(latency) : "")
+                        + (serial != null ? SerialWriter.metricsToLogString(serial) : "")
+                        + (outputSink instanceof MemoryOutputSink ? MemoryOutputSink.metricsToLogString(snapshot, 5) : ""));
+                CommonUtility.conditionedLog(this.getClass().getName(), snapshot.toLogString());
             } else {
-                FPS_PRODUCER = FPS_CONSUMER = 0;
-            }
-            runBenchmark(framerateAlert, notified);
-            if (config.isMqttEnable()) {
-                MQTTManager.publishToTopic(MQTTManager.getMqttTopic(Constants.MQTT_FRAMERATE),
-                        CommonUtility.toJsonString(new MqttFramerateDto(String.valueOf(FPS_PRODUCER), String.valueOf(FPS_CONSUMER))));
+                MetricsRegistry.FPS_PRODUCER.set(0);
+                MetricsRegistry.FPS_CONSUMER.set(0);
             }
+            // The benchmark can restart the device and the publish blocks on the broker, keep them off the scheduler
+            Map<String, LatencyDto> finalLatency = latency;
+            SerialMetricsDto finalSerial = serial;
+            SchedulerManager.execute(() -> {
+                runBenchmark(framerateAlert, notified);
+                if (config.isMqttEnable()) {
+                    MQTTManager.publishToTopic(MQTTManager.getMqttTopic(Constants.MQTT_FRAMERATE),
+                            CommonUtility.toJsonString(new MqttFramerateDto(String.valueOf(MetricsRegistry.FPS_PRODUCER.get()),
+                                    String.valueOf(MetricsRegistry.FPS_CONSUMER.get()), finalLatency, finalSerial, snapshot.toDto())));
+                }
+            });
         };
-        scheduledExecutorService.scheduleAtFixedRate(framerateTask, 0, 5, TimeUnit.SECONDS);
+        SchedulerManager.scheduleAtFixedRate(framerateTask, 0, 5, TimeUnit.SECONDS);
 
     }
 
@@ -409,7 +439,6 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
      */
     public static void checkForNightMode() {
 
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
         // Create a task that runs every 1 minutes
         Runnable framerateTask = () -> {
             if (!FireflyLuciferin.config.getNightModeBrightness().equals(Constants.NIGHT_MODE_OFF)) {
@@ -426,7 +455,7 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                 nightMode = false;
             }
         };
-        scheduledExecutorService.scheduleAtFixedRate(framerateTask, 0, 1, TimeUnit.MINUTES);
+        SchedulerManager.scheduleAtFixedRate(framerateTask, 0, 1, TimeUnit.MINUTES);
 
     }
 
@@ -438,35 +467,37 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     private void runBenchmark(AtomicInteger framerateAlert, AtomicBoolean notified) {
 
         if (!notified.get()) {
-            if ((FPS_PRODUCER > 0) && (framerateAlert.get() < Constants.NUMBER_OF_BENCHMARK_ITERATION)
-                    && (FPS_GW_CONSUMER < FPS_PRODUCER - Constants.BENCHMARK_ERROR_MARGIN)) {
+            if ((MetricsRegistry.FPS_PRODUCER.get() > 0) && (framerateAlert.get() < Constants.NUMBER_OF_BENCHMARK_ITERATION)
+                    && (MetricsRegistry.FPS_GW_CONSUMER.get() < MetricsRegistry.FPS_PRODUCER.get() - Constants.BENCHMARK_ERROR_MARGIN)) {
                 framerateAlert.getAndIncrement();
             } else {
                 framerateAlert.set(0);
             }
-            if (FPS_GW_CONSUMER == 0 && framerateAlert.get() == 6 && config.isMqttEnable()) {
+            if (MetricsRegistry.FPS_GW_CONSUMER.get() == 0 && framerateAlert.get() == 6 && config.isMqttEnable()) {
                 log.debug("Glow Worm Luciferin is not responding, restarting...");
                 NativeExecutor.restartNativeInstance();
             }
-            if (framerateAlert.get() == Constants.NUMBER_OF_BENCHMARK_ITERATION && !notified.get() && FPS_GW_CONSUMER > 0) {
+            // Framerate controller adjusts the capture live, no need to suggest a lower framerate
+            if (framerateAlert.get() == Constants.NUMBER_OF_BENCHMARK_ITERATION && !notified.get() && MetricsRegistry.FPS_GW_CONSUMER.get() > 0
+                    && !config.isFramerateController()) {
                 notified.set(true);
                 javafx.application.Platform.runLater(() -> {
                     int suggestedFramerate;
-                    if (FPS_GW_CONSUMER > (60 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    if (MetricsRegistry.FPS_GW_CONSUMER.get() > (60 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 60;
-                    } else if (FPS_GW_CONSUMER > (50 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    } else if (MetricsRegistry.FPS_GW_CONSUMER.get() > (50 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 50;
-                    } else if (FPS_GW_CONSUMER > (40 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    } else if (MetricsRegistry.FPS_GW_CONSUMER.get() > (40 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 40;
-                    } else if (FPS_GW_CONSUMER > (30 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    } else if (MetricsRegistry.FPS_GW_CONSUMER.get() > (30 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 30;
-                    } else if (FPS_GW_CONSUMER > (25 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    } else if (MetricsRegistry.FPS_GW_CONSUMER.get() > (25 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 25;
-                    } else if (FPS_GW_CONSUMER > (20 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    } else if (MetricsRegistry.FPS_GW_CONSUMER.get() > (20 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 20;
-                    } else if (FPS_GW_CONSUMER > (15 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    } else if (MetricsRegistry.FPS_GW_CONSUMER.get() > (15 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 15;
-                    } else if (FPS_GW_CONSUMER > (10 + Constants.BENCHMARK_ERROR_MARGIN)) {
+                    } else if (MetricsRegistry.FPS_GW_CONSUMER.get() > (10 + Constants.BENCHMARK_ERROR_MARGIN)) {
                         suggestedFramerate = 10;
                     } else {
                         suggestedFramerate = 5;
@@ -516,10 +547,11 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                     serial = serialPortId.open(this.getClass().getName(), config.getTimeout());
                     serial.setSerialPortParams(Integer.parseInt(config.getBaudRate()), SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
                     input = new BufferedReader(new InputStreamReader(serial.getInputStream()));
+                    serialCompressionSupported = false;
                     // add event listeners
                     serial.addEventListener(this);
                     serial.notifyOnDataAvailable(true);
-                    DevicesTabController.deviceTableData.add(new GlowWormDevice(Constants.USB_DEVICE, serialPortId.getName(),
+                    DeviceRegistry.add(new GlowWormDevice(Constants.USB_DEVICE, serialPortId.getName(),
                             Constants.DASH, Constants.DASH, Constants.DASH, Constants.DASH, Constants.DASH,
                             FireflyLuciferin.formatter.format(new Date()), Constants.DASH,  Constants.DASH, Constants.DASH));
                     GUIManager guiManager = new GUIManager();
@@ -600,38 +632,39 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                 if (input.ready()) {
                     String inputLine = input.readLine();
                     CommonUtility.conditionedLog(this.getClass().getName(), inputLine);
-                    DevicesTabController.deviceTableData.forEach(glowWormDevice -> {
-                        if (glowWormDevice.getDeviceName().equals(Constants.USB_DEVICE)) {
-                            glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
-                            // Skipping the Setting LED loop from Glow Worm Luciferin Serial communication
-                            if (!inputLine.contains(Constants.SETTING_LED_SERIAL)) {
-                                if (inputLine.contains(Constants.SERIAL_VERSION)) {
-                                    glowWormDevice.setDeviceVersion(inputLine.replace(Constants.SERIAL_VERSION, ""));
-                                } else if (inputLine.contains(Constants.SERIAL_LED_NUM)) {
-                                    glowWormDevice.setNumberOfLEDSconnected(inputLine.replace(Constants.SERIAL_LED_NUM, ""));
-                                } else if (inputLine.contains(Constants.SERIAL_BOARD)) {
-                                    glowWormDevice.setDeviceBoard(inputLine.replace(Constants.SERIAL_BOARD, ""));
-                                } else if (inputLine.contains(Constants.SERIAL_MAC)) {
-                                    glowWormDevice.setMac(inputLine.replace(Constants.SERIAL_MAC, ""));
-                                } else if (inputLine.contains(Constants.SERIAL_GPIO)) {
-                                    glowWormDevice.setGpio(inputLine.replace(Constants.SERIAL_GPIO, ""));
-                                } else if (inputLine.contains(Constants.SERIAL_FIRMWARE)) {
-                                    glowWormDevice.setFirmwareType(inputLine.replace(Constants.SERIAL_FIRMWARE, ""));
-                                } else if (inputLine.contains(Constants.SERIAL_MQTTTOPIC)) {
-                                    glowWormDevice.setMqttTopic(inputLine.replace(Constants.SERIAL_MQTTTOPIC, ""));
-                                } else if (inputLine.contains(Constants.SERIAL_BAUDRATE)) {
-                                    boolean validBaudrate = true;
-                                    int receivedBaudrate = Integer.parseInt(inputLine.replace(Constants.SERIAL_BAUDRATE, ""));
-                                    if (!(receivedBaudrate >= 1 && receivedBaudrate <= 7)) {
-                                        validBaudrate = false;
-                                    }
-                                    glowWormDevice.setBaudRate(validBaudrate ? Constants.BaudRate.values()[receivedBaudrate - 1].getBaudRate() : Constants.DASH);
-                                } else if (!config.isMqttEnable() && inputLine.contains(Constants.SERIAL_FRAMERATE)) {
-                                    FPS_GW_CONSUMER = Float.parseFloat(inputLine.replace(Constants.SERIAL_FRAMERATE, ""));
+                    GlowWormDevice glowWormDevice = DeviceRegistry.findByName(Constants.USB_DEVICE);
+                    if (glowWormDevice != null) {
+                        glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
+                        // Skipping the Setting LED loop from Glow Worm Luciferin Serial communication
+                        if (!inputLine.contains(Constants.SETTING_LED_SERIAL)) {
+                            if (inputLine.contains(Constants.SERIAL_VERSION)) {
+                                glowWormDevice.setDeviceVersion(inputLine.replace(Constants.SERIAL_VERSION, ""));
+                            } else if (inputLine.contains(Constants.SERIAL_LED_NUM)) {
+                                glowWormDevice.setNumberOfLEDSconnected(inputLine.replace(Constants.SERIAL_LED_NUM, ""));
+                            } else if (inputLine.contains(Constants.SERIAL_BOARD)) {
+                                glowWormDevice.setDeviceBoard(inputLine.replace(Constants.SERIAL_BOARD, ""));
+                            } else if (inputLine.contains(Constants.SERIAL_MAC)) {
+                                DeviceRegistry.setMac(glowWormDevice, inputLine.replace(Constants.SERIAL_MAC, ""));
+                            } else if (inputLine.contains(Constants.SERIAL_GPIO)) {
+                                glowWormDevice.setGpio(inputLine.replace(Constants.SERIAL_GPIO, ""));
+                            } else if (inputLine.contains(Constants.SERIAL_FIRMWARE)) {
+                                glowWormDevice.setFirmwareType(inputLine.replace(Constants.SERIAL_FIRMWARE, ""));
+                            } else if (inputLine.contains(Constants.SERIAL_MQTTTOPIC)) {
+                                glowWormDevice.setMqttTopic(inputLine.replace(Constants.SERIAL_MQTTTOPIC, ""));
+                            } else if (inputLine.contains(Constants.SERIAL_COMPRESSION)) {
+                                serialCompressionSupported = Constants.SERIAL_COMPRESSION_DPSRLE.equals(inputLine.replace(Constants.SERIAL_COMPRESSION, "").trim());
+                            } else if (inputLine.contains(Constants.SERIAL_BAUDRATE)) {
+                                boolean validBaudrate = true;
+                                int receivedBaudrate = Integer.parseInt(inputLine.replace(Constants.SERIAL_BAUDRATE, ""));
+                                if (!(receivedBaudrate >= 1 && receivedBaudrate <= 7)) {
+                                    validBaudrate = false;
                                 }
+                                glowWormDevice.setBaudRate(validBaudrate ? Constants.BaudRate.values()[receivedBaudrate - 1].getBaudRate() : Constants.DASH);
+                            } else if (!config.isMqttEnable() && inputLine.contains(Constants.SERIAL_FRAMERATE)) {
+                                MetricsRegistry.FPS_GW_CONSUMER.set(Float.parseFloat(inputLine.replace(Constants.SERIAL_FRAMERATE, "")));
                             }
                         }
-                    });
+                    }
                 }
             } catch (Exception e) {
                 // We don't care about this exception
@@ -677,129 +710,55 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     }
 
     /**
-     * Send color stram to the microcontroller
-     * using DPsoftware Checksum
-     * @param leds array of LEDs containing the average color to display on the LED
+     * Send color stram to the microcontroller using the output sink chosen at pipeline start
+     * @param leds frame containing the average color to display on the LED
      */
-    private void sendColors(Color[] leds) throws IOException {
-
-        if (Constants.CLOCKWISE.equals(config.getOrientation())) {
-            Collections.reverse(Arrays.asList(leds));
-        }
-        if (config.getLedStartOffset() > 0) {
-            List<Color> tempList = new ArrayList<>();
-            List<Color> tempListHead = Arrays.asList(leds).subList(config.getLedStartOffset(), leds.length);
-            List<Color> tempListTail = Arrays.asList(leds).subList(0, config.getLedStartOffset());
-            tempList.addAll(tempListHead);
-            tempList.addAll(tempListTail);
-            leds = tempList.toArray(leds);
-        }
-        int i = 0;
-        if (config.isMqttEnable() && config.isMqttStream()) {
-            // Single part stream
-            if (ledNumber < Constants.FIRST_CHUNK || !Constants.JSON_STREAM) {
-                sendChunck(i, leds, 1);
-            } else { // Multi part stream
-                // First Chunk
-                i = sendChunck(i, leds, 1);
-                // Second Chunk
-                i = sendChunck(i, leds, 2);
-                // Third Chunk
-                if (i >= Constants.SECOND_CHUNK && i < Constants.THIRD_CHUNK) {
-                    i = sendChunck(i, leds, 3);
-                }
-                // Fourth Chunk
-                if (i >= Constants.THIRD_CHUNK && i < ledNumber) {
-                    sendChunck(i, leds, 4);
-                }
-            }
-        } else {
-            sendColorsViaUSB(leds);
+    private void sendColors(LEDFrame leds) throws IOException {
+
+        if (Constants.CLOCKWISE.equals(config.getOrientation()) || config.getLedStartOffset() > 0) {
+            leds = reorderLeds(leds);
+        }
+        OutputSink sink = outputSink;
+        sink.send(leds);
+        if (!sink.isAsync()) {
+            FrameLatency.written(leds);
         }
-        FPS_CONSUMER_COUNTER++;
+        MetricsRegistry.FRAMES_CONSUMED.increment();
 
     }
 
     /**
-     * Send single chunk to MQTT topic
-     * @param i           index
-     * @param leds        LEDs array to send
-     * @param chunkNumber chunk number
-     * @return index of the remaining leds to send
+     * Reverse the frame if clockwise and rotate it by the LED start offset.
+     * Producers may reuse the frame they offered, the result is written into a consumer owned frame.
+     * @param leds frame to reorder
+     * @return reordered frame
      */
-    int sendChunck(int i, Color[] leds, int chunkNumber) {
-
-        int firstChunk = Constants.FIRST_CHUNK;
-        StringBuilder ledStr = new StringBuilder();
-        int ledNum = leds.length;
-        if (Constants.JSON_STREAM) {
-            ledStr.append("{" + Constants.LED_NUM).append(ledNum).append(",");
-            ledStr.append("\"part\":").append(chunkNumber).append(",");
-            ledStr.append(Constants.STREAM);
-        } else {
-            ledStr.append(ledNum).append(",");
-            ledStr.append((AudioLoopback.AUDIO_BRIGHTNESS == 255 ? CommonUtility.getNightBrightness() : AudioLoopback.AUDIO_BRIGHTNESS)).append(",");
-            firstChunk = Constants.MAX_CHUNK;
-        }
-        switch (chunkNumber) {
-            case 1:
-                // First chunk equals MAX_CHUNK when in byte array
-                while (i < firstChunk && i < ledNum) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
-            case 2:
-                while (i >= Constants.FIRST_CHUNK && i < Constants.SECOND_CHUNK && i < ledNum) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
-            case 3:
-                while (i >= Constants.SECOND_CHUNK && i < Constants.THIRD_CHUNK && i < ledNum) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
-            case 4:
-                while (i >= Constants.THIRD_CHUNK && i < ledNum) {
-                    ledStr.append(leds[i].getRGB());
-                    ledStr.append(",");
-                    i++;
-                }
-                break;
+    LEDFrame reorderLeds(LEDFrame leds) {
+
+        int ledNum = leds.size();
+        if (orderedLeds == null || orderedLeds.size() != ledNum) {
+            orderedLeds = new LEDFrame(ledNum);
         }
-        if (Constants.JSON_STREAM) {
-            ledStr.append(".");
-            MQTTManager.stream(ledStr.toString().replace(",.","") + "]}");
-        } else {
-            ledStr.append("0");
-            MQTTManager.stream(ledStr.toString());
+        boolean clockwise = Constants.CLOCKWISE.equals(config.getOrientation());
+        int offset = config.getLedStartOffset();
+        int[] source = leds.getRgb();
+        int[] target = orderedLeds.getRgb();
+        for (int k = 0; k < ledNum; k++) {
+            int index = (k + offset) % ledNum;
+            target[k] = source[clockwise ? (ledNum - 1 - index) : index];
         }
-        return i;
+        orderedLeds.copyLatencyStamps(leds);
+        return orderedLeds;
 
     }
 
     /**
      * Send color info via USB Serial
-     * @param leds array with colors
+     * @param leds frame with colors, a single LED frame is sent as a solid color
      * @throws IOException can't write to serial
      */
-    public static void sendColorsViaUSB(Color[] leds) throws IOException {
+    public static void sendColorsViaUSB(LEDFrame leds) throws IOException {
 
-        // Effect is set via MQTT when using Full Firmware
-        if (config.isMqttEnable()) {
-            fireflyEffect = 100;
-        } else {
-            for (Constants.Effect ef : Constants.Effect.values()) {
-                if(ef.getEffect().equals(FireflyLuciferin.config.getEffect())) {
-                    fireflyEffect = ef.ordinal() + 1;
-                }
-            }
-        }
         if (!UpgradeManager.serialVersionOk) {
             UpgradeManager upgradeManager = new UpgradeManager();
             // Check if the connected device match the minimum firmware version requirements for this Firefly Luciferin version
@@ -810,66 +769,30 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
                 }
             }
         } else {
-            int i = 0, j = -1;
-            byte[] ledsArray = new byte[(ledNumber * 3) + 15];
-            // DPsoftware checksum
-            int ledsCountHi = ((ledNumHighLowCount) >> 8) & 0xff;
-            int ledsCountLo = (ledNumHighLowCount) & 0xff;
-            int loSecondPart = (ledNumHighLowCountSecondPart) & 0xff;
-            int brightnessToSend = (AudioLoopback.AUDIO_BRIGHTNESS == 255 ? CommonUtility.getNightBrightness() : AudioLoopback.AUDIO_BRIGHTNESS) & 0xff;
-            int gpioToSend = (gpio) & 0xff;
-            int baudRateToSend = (baudRate) & 0xff;
-            int whiteTempToSend = (whiteTemperature) & 0xff;
-            int fireflyEffectToSend = (fireflyEffect) & 0xff;
-
-            ledsArray[++j] = (byte) ('D');
-            ledsArray[++j] = (byte) ('P');
-            ledsArray[++j] = (byte) ('s');
-            ledsArray[++j] = (byte) ('o');
-            ledsArray[++j] = (byte) ('f');
-            ledsArray[++j] = (byte) ('t');
-            ledsArray[++j] = (byte) (ledsCountHi);
-            ledsArray[++j] = (byte) (ledsCountLo);
-            ledsArray[++j] = (byte) (loSecondPart);
-            ledsArray[++j] = (byte) (brightnessToSend);
-            ledsArray[++j] = (byte) (gpioToSend);
-            ledsArray[++j] = (byte) (baudRateToSend);
-            ledsArray[++j] = (byte) (whiteTempToSend);
-            ledsArray[++j] = (byte) (fireflyEffectToSend);
-            ledsArray[++j] = (byte) ((ledsCountHi ^ ledsCountLo ^ loSecondPart ^ brightnessToSend ^ gpioToSend ^ baudRateToSend ^ whiteTempToSend ^ fireflyEffectToSend ^ 0x55));
-
-            if (leds.length == 1) {
-                colorInUse = leds[0];
-                while (i < ledNumber) {
-                    ledsArray[++j] = (byte) leds[0].getRed();
-                    ledsArray[++j] = (byte) leds[0].getGreen();
-                    ledsArray[++j] = (byte) leds[0].getBlue();
-                    i++;
-                }
-            } else {
-                while (i < ledNumber) {
-                    ledsArray[++j] = (byte) leds[i].getRed();
-                    ledsArray[++j] = (byte) leds[i].getGreen();
-                    ledsArray[++j] = (byte) leds[i].getBlue();
-                    i++;
-                }
+            if (leds.size() == 1) {
+                colorInUse = leds;
+            }
+            try {
+                // Packets are written by the serial writer thread, the caller only waits when the writer is behind
+                SerialWriter.submit(leds, ledNumber);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
             }
-            output.write(ledsArray);
         }
 
     }
 
     /**
      * Write Serial Stream to the Serial Output
-     * @param robot an AWT Robot instance for screen capture.
-     *              One instance every three threads seems to be the hot spot for performance.
+     * @param captureContext capture context owned by this producer
      */
-    private void producerTask(Robot robot) {
+    private void producerTask(CaptureContext captureContext) {
 
         if (!AudioLoopback.RUNNING_AUDIO || Constants.Effect.MUSIC_MODE_BRIGHT.getEffect().equals(FireflyLuciferin.config.getEffect())
                 || Constants.Effect.MUSIC_MODE_RAINBOW.getEffect().equals(FireflyLuciferin.config.getEffect())) {
-            PipelineManager.offerToTheQueue(ImageProcessor.getColors(robot, null));
-            FPS_PRODUCER_COUNTER++;
+            PipelineManager.offerToTheQueue(ImageProcessor.getColors(captureContext));
+            MetricsRegistry.FRAMES_PRODUCED.increment();
         }
         //System.gc(); // uncomment when hammering the JVM
 
@@ -881,26 +804,94 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     @SuppressWarnings("InfiniteLoopStatement")
     void consume() throws InterruptedException, IOException {
 
+        FrameSmoother frameSmoother = null;
+        if (config.isFrameSmoothing()) {
+            frameSmoother = new FrameSmoother(config.getSmoothingAlpha(), config.getInterpolatedFramerate() > 0);
+            if (config.getInterpolatedFramerate() > 0) {
+                consumeInterpolated(frameSmoother);
+            }
+        }
+        while (true) {
+            LEDFrame num = sharedQueue.take();
+            if (RUNNING && isValidFrame(num)) {
+                FrameLatency.dequeued(num);
+                LEDFrame toSend = num;
+                if (frameSmoother != null) {
+                    frameSmoother.push(num, System.nanoTime());
+                    toSend = frameSmoother.next(System.nanoTime());
+                    toSend.copyLatencyStamps(num);
+                }
+                sendColors(toSend);
+            } else {
+                sharedQueue.drop();
+            }
+        }
+
+    }
+
+    /**
+     * Fast consumer with frame interpolation, frames are sent at the interpolated framerate
+     * independently of the capture framerate
+     * @param frameSmoother smoothing stage, confined to the consumer thread
+     */
+    @SuppressWarnings("InfiniteLoopStatement")
+    void consumeInterpolated(FrameSmoother frameSmoother) throws InterruptedException, IOException {
+
+        long outputInterval = TimeUnit.SECONDS.toNanos(1) / config.getInterpolatedFramerate();
+        long nextOutput = System.nanoTime();
+        // Capture stamp of the last pushed frame, latency is recorded by the first output that shows it
+        long lastCaptureNanos = 0;
         while (true) {
-            Color[] num = sharedQueue.take();
-            if (RUNNING) {
-                if (CommonUtility.isSingleDeviceMultiScreen()) {
-                    if (num.length == MessageServer.totalLedNum) {
-                        sendColors(num);
-                    }
-                } else if (num.length == ledNumber) {
-                    sendColors(num);
+            LEDFrame num = sharedQueue.poll(Math.max(0, nextOutput - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (num != null) {
+                if (RUNNING && isValidFrame(num)) {
+                    FrameLatency.dequeued(num);
+                    lastCaptureNanos = num.getCaptureNanos();
+                    frameSmoother.push(num, System.nanoTime());
+                } else {
+                    sharedQueue.drop();
+                }
+            }
+            long now = System.nanoTime();
+            if (now >= nextOutput) {
+                if (RUNNING && frameSmoother.getOutput() != null) {
+                    LEDFrame toSend = frameSmoother.next(now);
+                    // Frames in between captures carry no stamp, the write stage starts when the output is due
+                    toSend.setCaptureNanos(lastCaptureNanos);
+                    toSend.setDequeueNanos(now);
+                    lastCaptureNanos = 0;
+                    sendColors(toSend);
+                }
+                nextOutput += outputInterval;
+                // Consumer is late, don't try to recover the lost frames
+                if (nextOutput < now) {
+                    nextOutput = now + outputInterval;
                 }
             }
         }
 
     }
 
+    /**
+     * Check if the frame contains the number of LEDs expected by the strip
+     * @param num frame to check
+     * @return true if the frame can be sent
+     */
+    boolean isValidFrame(LEDFrame num) {
+
+        if (CommonUtility.isSingleDeviceMultiScreen()) {
+            return num.size() == MessageServer.totalLedNum;
+        }
+        return num.size() == ledNumber;
+
+    }
+
     /**
      * Clean and Close Serial Output Stream
      */
     private void clean() {
 
+        SerialWriter.flush(Constants.SERIAL_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
         if(output != null) {
             try {
                 output.close();
@@ -920,11 +911,17 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
     public static void exit() {
 
         exitOtherInstances();
+        // Other instances read the exit flag from the message server, it's closed only after they had the time to exit
+        if (MessageServer.messageServer != null) {
+            MessageServer.messageServer.stop();
+        }
+        SerialWriter.flush(Constants.SERIAL_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
         if (FireflyLuciferin.serial != null) {
             FireflyLuciferin.serial.removeEventListener();
             FireflyLuciferin.serial.close();
         }
         AudioLoopback.RUNNING_AUDIO = false;
+        SchedulerManager.shutdown();
         System.exit(0);
 
     }
@@ -952,17 +949,16 @@ public class FireflyLuciferin extends Application implements SerialPortEventList
      */
     void manageSolidLed() {
 
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(2);
-        scheduledExecutorService.scheduleAtFixedRate(() -> {
+        SchedulerManager.scheduleBlockingAtFixedRate(() -> {
             if (!RUNNING) {
                 if (config.isToggleLed() && !config.isMqttEnable()) {
-                    Color[] colorToUse = new Color[1];
+                    LEDFrame colorToUse;
                     if (colorInUse == null) {
                         String[] color = FireflyLuciferin.config.getColorChooser().split(",");
-                        colorToUse[0] = new Color(Integer.parseInt(color[0]), Integer.parseInt(color[1]), Integer.parseInt(color[2]));
+                        colorToUse = LEDFrame.solid(1, Integer.parseInt(color[0]), Integer.parseInt(color[1]), Integer.parseInt(color[2]));
                         config.setBrightness(Integer.parseInt(color[3]));
                     } else {
-                        colorToUse[0] = colorInUse;
+                        colorToUse = colorInUse;
                     }
                     try {
                         if (FireflyLuciferin.config.getEffect().equals(Constants.Effect.RAINBOW.getEffect())) {
@@ -0,0 +1,111 @@
+/*
+  FrameMailbox.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.utilities.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free single slot mailbox between producers and the consumer.
+ * Producers overwrite the slot, the consumer always takes the newest frame,
+ * so latency is bounded to one frame even when the strip is slower than the capture.
+ * Only one consumer thread is supported.
+ */
+public class FrameMailbox {
+
+    private final AtomicReference<LEDFrame> slot = new AtomicReference<>();
+    private volatile Thread consumer;
+
+    /**
+     * Put a new frame in the slot, the previous one is overwritten if the consumer didn't take it yet
+     * @param frame frame to send
+     */
+    public void offer(LEDFrame frame) {
+
+        if (slot.getAndSet(frame) != null) {
+            MetricsRegistry.FRAMES_OVERWRITTEN.increment();
+        }
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+
+    }
+
+    /**
+     * Take the newest frame, waiting for it if the slot is empty
+     * @return newest frame
+     * @throws InterruptedException if the consumer is interrupted while waiting
+     */
+    public LEDFrame take() throws InterruptedException {
+
+        consumer = Thread.currentThread();
+        LEDFrame frame;
+        while ((frame = slot.getAndSet(null)) == null) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return frame;
+
+    }
+
+    /**
+     * Take the newest frame, waiting up to the given time if the slot is empty
+     * @param timeout max time to wait
+     * @param unit    timeout unit
+     * @return newest frame or null if no frame arrived in time
+     * @throws InterruptedException if the consumer is interrupted while waiting
+     */
+    public LEDFrame poll(long timeout, TimeUnit unit) throws InterruptedException {
+
+        consumer = Thread.currentThread();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        LEDFrame frame;
+        while ((frame = slot.getAndSet(null)) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return frame;
+
+    }
+
+    /**
+     * Count a frame taken by the consumer and discarded
+     */
+    public void drop() {
+
+        MetricsRegistry.FRAMES_DROPPED.increment();
+
+    }
+
+}
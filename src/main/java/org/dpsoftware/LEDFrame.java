@@ -0,0 +1,177 @@
+/*
+  LEDFrame.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Arrays;
+
+/**
+ * Packed LED frame, one int per LED in 0xRRGGBB format.
+ * Producers write directly into the backing array and sinks read from it,
+ * no object is created per LED during capture.
+ */
+@Getter
+public class LEDFrame {
+
+    // Alpha channel expected by the text stream formats (same value as java.awt.Color.getRGB())
+    public static final int OPAQUE = 0xFF000000;
+    private final int[] rgb;
+    // Latency stamps in System.nanoTime(), 0 if the frame doesn't come from a screen capture
+    @Setter
+    private long captureNanos;
+    @Setter
+    private long processedNanos;
+    @Setter
+    private long dequeueNanos;
+
+    /**
+     * Constructor
+     * @param ledNumber number of LEDs in the frame
+     */
+    public LEDFrame(int ledNumber) {
+
+        this.rgb = new int[ledNumber];
+
+    }
+
+    /**
+     * Create a frame where every LED has the same color
+     * @param ledNumber number of LEDs in the frame
+     * @param r red channel
+     * @param g green channel
+     * @param b blue channel
+     * @return solid frame
+     */
+    public static LEDFrame solid(int ledNumber, int r, int g, int b) {
+
+        LEDFrame frame = new LEDFrame(ledNumber);
+        frame.fill(pack(r, g, b));
+        return frame;
+
+    }
+
+    /**
+     * Pack channels into a 0xRRGGBB int
+     * @param r red channel
+     * @param g green channel
+     * @param b blue channel
+     * @return packed color
+     */
+    public static int pack(int r, int g, int b) {
+
+        return ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+
+    }
+
+    /**
+     * Copy the latency stamps of the frame this one is derived from (reordered or smoothed frames)
+     * @param source frame with the stamps
+     */
+    public void copyLatencyStamps(LEDFrame source) {
+
+        captureNanos = source.captureNanos;
+        processedNanos = source.processedNanos;
+        dequeueNanos = source.dequeueNanos;
+
+    }
+
+    /**
+     * Number of LEDs in this frame
+     * @return frame size
+     */
+    public int size() {
+
+        return rgb.length;
+
+    }
+
+    /**
+     * Set a LED color
+     * @param index LED index
+     * @param r     red channel
+     * @param g     green channel
+     * @param b     blue channel
+     */
+    public void set(int index, int r, int g, int b) {
+
+        rgb[index] = pack(r, g, b);
+
+    }
+
+    /**
+     * Set a LED color
+     * @param index  LED index
+     * @param packed 0xRRGGBB color, alpha channel is discarded
+     */
+    public void set(int index, int packed) {
+
+        rgb[index] = packed & 0xFFFFFF;
+
+    }
+
+    /**
+     * Set the same color on every LED
+     * @param packed 0xRRGGBB color, alpha channel is discarded
+     */
+    public void fill(int packed) {
+
+        Arrays.fill(rgb, packed & 0xFFFFFF);
+
+    }
+
+    /**
+     * Get a packed LED color
+     * @param index LED index
+     * @return 0xRRGGBB color
+     */
+    public int get(int index) {
+
+        return rgb[index];
+
+    }
+
+    public int getRed(int index) {
+        return (rgb[index] >> 16) & 0xFF;
+    }
+
+    public int getGreen(int index) {
+        return (rgb[index] >> 8) & 0xFF;
+    }
+
+    public int getBlue(int index) {
+        return rgb[index] & 0xFF;
+    }
+
+    /**
+     * Packed LED color with the alpha channel, same format used by the text stream and the message server
+     * @param index LED index
+     * @return 0xFFRRGGBB color
+     */
+    public int getARGB(int index) {
+
+        return rgb[index] | OPAQUE;
+
+    }
+
+}
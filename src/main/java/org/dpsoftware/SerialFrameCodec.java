@@ -0,0 +1,304 @@
+/*
+  SerialFrameCodec.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.Getter;
+import org.dpsoftware.config.Constants;
+
+/**
+ * Compressed serial frame format, an alternative to the raw DPsoftware packet for slow serial links.
+ *
+ * Packet layout:
+ * - "DPsrle" magic, the raw packet firmware never matches it and discards the packet,
+ *   packets are sent only to a device that reported "compression:DPsrle" on the serial port
+ * - the 8 header fields and the header checksum of the raw DPsoftware packet
+ * - flags (bit 0 = keyframe), sequence number, payload length (high, low)
+ * - payload
+ * - checksum, XOR of flags, sequence, length and payload bytes with 0x55
+ *
+ * Payload tokens:
+ * - 0x00-0x3F RUN, (token + 1) LEDs of the color in the next 3 bytes
+ * - 0x40-0x7F LITERAL, (token - 0x40 + 1) colors of 3 bytes each
+ * - 0x80-0xFF SKIP, (token - 0x80 + 1) LEDs unchanged since the previous frame, not allowed in keyframes
+ *
+ * Colors within SERIAL_COMPRESSION_TOLERANCE of their neighbour (RUN) or of the color the device already shows (SKIP)
+ * are considered equal. The default tolerance is 0, the codec is lossless. With a higher tolerance the encoder tracks
+ * the colors the device shows, so the error never grows over the tolerance.
+ * A keyframe is sent every SERIAL_KEYFRAME_INTERVAL frames, a device that missed a frame waits for the next keyframe.
+ */
+public class SerialFrameCodec {
+
+    public static final byte[] MAGIC = {'D', 'P', 's', 'r', 'l', 'e'};
+    // Flags, sequence, payload length
+    public static final int PREAMBLE_SIZE = 4;
+    public static final int FLAG_KEYFRAME = 0x01;
+    static final int RUN = 0x00;
+    static final int LITERAL = 0x40;
+    static final int SKIP = 0x80;
+    static final int MAX_RUN = 64;
+    static final int MAX_SKIP = 128;
+
+    /**
+     * Max packet size for the given number of LEDs, a RUN of one LED is the worst case
+     * @param ledNumber number of LEDs
+     * @return packet size in bytes
+     */
+    public static int maxPacketSize(int ledNumber) {
+
+        return SerialWriter.HEADER_SIZE + PREAMBLE_SIZE + (ledNumber * 4) + 1;
+
+    }
+
+    /**
+     * Encoder, confined to the thread that encodes the serial packets
+     */
+    public static class Encoder {
+
+        // Colors shown by the device after the last packet
+        private int[] reference;
+        private int framesSinceKeyframe;
+        private int sequence;
+        private boolean forceKeyframe = true;
+
+        /**
+         * Send a keyframe on the next frame, used when the device may have missed a packet
+         */
+        public void forceKeyframe() {
+
+            forceKeyframe = true;
+
+        }
+
+        /**
+         * Encode a frame
+         * @param header    raw DPsoftware header, the magic is replaced
+         * @param colors    colors in 0xRRGGBB format
+         * @param ledNumber number of LEDs
+         * @param packet    destination, at least maxPacketSize(ledNumber) bytes
+         * @return packet length
+         */
+        public int encode(byte[] header, int[] colors, int ledNumber, byte[] packet) {
+
+            if (reference == null || reference.length != ledNumber) {
+                reference = new int[ledNumber];
+                forceKeyframe = true;
+            }
+            boolean keyframe = forceKeyframe || ++framesSinceKeyframe >= Constants.SERIAL_KEYFRAME_INTERVAL;
+            if (keyframe) {
+                forceKeyframe = false;
+                framesSinceKeyframe = 0;
+            }
+            int tolerance = Constants.SERIAL_COMPRESSION_TOLERANCE;
+            System.arraycopy(header, 0, packet, 0, SerialWriter.HEADER_SIZE);
+            System.arraycopy(MAGIC, 0, packet, 0, MAGIC.length);
+            int payloadStart = SerialWriter.HEADER_SIZE + PREAMBLE_SIZE;
+            int j = payloadStart;
+            int i = 0;
+            while (i < ledNumber) {
+                int end = i;
+                if (!keyframe) {
+                    while (end < ledNumber && end - i < MAX_SKIP && near(colors[end], reference[end], tolerance)) {
+                        end++;
+                    }
+                    if (end > i) {
+                        packet[j++] = (byte) (SKIP | (end - i - 1));
+                        i = end;
+                        continue;
+                    }
+                }
+                int color = colors[i];
+                end = i + 1;
+                while (end < ledNumber && end - i < MAX_RUN && near(colors[end], color, tolerance)) {
+                    end++;
+                }
+                if (end - i > 1) {
+                    packet[j++] = (byte) (RUN | (end - i - 1));
+                    j = putColor(packet, j, color);
+                    while (i < end) {
+                        reference[i++] = color;
+                    }
+                    continue;
+                }
+                // Literal until the next run or the next LED that can be skipped
+                int tokenIndex = j++;
+                end = i;
+                while (end < ledNumber && end - i < MAX_RUN
+                        && (end == i || ((keyframe || !near(colors[end], reference[end], tolerance))
+                        && !(end + 1 < ledNumber && near(colors[end + 1], colors[end], tolerance))))) {
+                    reference[end] = colors[end];
+                    j = putColor(packet, j, colors[end]);
+                    end++;
+                }
+                packet[tokenIndex] = (byte) (LITERAL | (end - i - 1));
+                i = end;
+            }
+            int payloadLength = j - payloadStart;
+            int p = SerialWriter.HEADER_SIZE;
+            packet[p++] = (byte) (keyframe ? FLAG_KEYFRAME : 0);
+            packet[p++] = (byte) sequence;
+            packet[p++] = (byte) (payloadLength >> 8);
+            packet[p] = (byte) payloadLength;
+            sequence = (sequence + 1) & 0xFF;
+            packet[j] = (byte) checksum(packet, SerialWriter.HEADER_SIZE, j);
+            return j + 1;
+
+        }
+
+        /**
+         * Write a color, three bytes
+         * @param packet destination
+         * @param j      index
+         * @return next index
+         */
+        private static int putColor(byte[] packet, int j, int color) {
+
+            packet[j++] = (byte) (color >> 16);
+            packet[j++] = (byte) (color >> 8);
+            packet[j++] = (byte) color;
+            return j;
+
+        }
+
+    }
+
+    /**
+     * Reference decoder, it's what the firmware does when it receives a compressed packet
+     */
+    public static class Decoder {
+
+        // Colors shown after the last decoded packet
+        @Getter
+        private int[] leds = new int[0];
+        private int lastSequence;
+        private boolean synced = false;
+
+        /**
+         * Decode a packet
+         * @param packet packet received
+         * @param length packet length
+         * @return true if the packet has been applied, false if it's invalid or the decoder waits for a keyframe
+         */
+        public boolean decode(byte[] packet, int length) {
+
+            int payloadStart = SerialWriter.HEADER_SIZE + PREAMBLE_SIZE;
+            if (length < payloadStart + 1) {
+                return false;
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (packet[i] != MAGIC[i]) {
+                    return false;
+                }
+            }
+            int headerChecksum = 0x55;
+            for (int i = MAGIC.length; i < SerialWriter.HEADER_SIZE - 1; i++) {
+                headerChecksum ^= packet[i] & 0xFF;
+            }
+            int payloadLength = ((packet[SerialWriter.HEADER_SIZE + 2] & 0xFF) << 8) | (packet[SerialWriter.HEADER_SIZE + 3] & 0xFF);
+            if ((packet[SerialWriter.HEADER_SIZE - 1] & 0xFF) != headerChecksum || payloadStart + payloadLength + 1 != length
+                    || (packet[length - 1] & 0xFF) != checksum(packet, SerialWriter.HEADER_SIZE, length - 1)) {
+                synced = false;
+                return false;
+            }
+            int ledNumber = (((packet[6] & 0xFF) << 8) | (packet[7] & 0xFF)) + 1 + (packet[8] & 0xFF);
+            boolean keyframe = (packet[SerialWriter.HEADER_SIZE] & FLAG_KEYFRAME) != 0;
+            int sequence = packet[SerialWriter.HEADER_SIZE + 1] & 0xFF;
+            if (!keyframe && (!synced || sequence != ((lastSequence + 1) & 0xFF) || leds.length != ledNumber)) {
+                synced = false;
+                return false;
+            }
+            int[] decoded = leds.length == ledNumber ? leds.clone() : new int[ledNumber];
+            int i = 0;
+            int j = payloadStart;
+            int payloadEnd = payloadStart + payloadLength;
+            while (j < payloadEnd) {
+                int token = packet[j++] & 0xFF;
+                if ((token & SKIP) != 0) {
+                    int count = (token & 0x7F) + 1;
+                    if (keyframe || i + count > ledNumber) {
+                        synced = false;
+                        return false;
+                    }
+                    i += count;
+                } else {
+                    int count = (token & 0x3F) + 1;
+                    boolean literal = (token & LITERAL) != 0;
+                    if (i + count > ledNumber || j + (literal ? count * 3 : 3) > payloadEnd) {
+                        synced = false;
+                        return false;
+                    }
+                    for (int k = 0; k < count; k++) {
+                        decoded[i++] = ((packet[j] & 0xFF) << 16) | ((packet[j + 1] & 0xFF) << 8) | (packet[j + 2] & 0xFF);
+                        if (literal) {
+                            j += 3;
+                        }
+                    }
+                    if (!literal) {
+                        j += 3;
+                    }
+                }
+            }
+            if (i != ledNumber) {
+                synced = false;
+                return false;
+            }
+            leds = decoded;
+            lastSequence = sequence;
+            synced = true;
+            return true;
+
+        }
+
+    }
+
+    /**
+     * Every channel of the two colors differs at most by the tolerance
+     * @param a         first color
+     * @param b         second color
+     * @param tolerance max difference for each channel
+     * @return true if the colors are considered equal
+     */
+    static boolean near(int a, int b, int tolerance) {
+
+        return Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF)) <= tolerance
+                && Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF)) <= tolerance
+                && Math.abs((a & 0xFF) - (b & 0xFF)) <= tolerance;
+
+    }
+
+    /**
+     * Packet checksum
+     * @param packet packet
+     * @param from   first byte, inclusive
+     * @param to     last byte, exclusive
+     * @return XOR of the bytes with 0x55
+     */
+    static int checksum(byte[] packet, int from, int to) {
+
+        int checksum = 0x55;
+        for (int i = from; i < to; i++) {
+            checksum ^= packet[i] & 0xFF;
+        }
+        return checksum;
+
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+  SerialWriter.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.audio.AudioLoopback;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.managers.FramerateController;
+import org.dpsoftware.managers.SchedulerManager;
+import org.dpsoftware.managers.dto.LatencyDto;
+import org.dpsoftware.managers.dto.SerialMetricsDto;
+import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.FrameLatency;
+import org.dpsoftware.utilities.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serial output stage.
+ * Frames are encoded into a small pool of preallocated DPsoftware packets and written by a dedicated thread,
+ * so the next frame is encoded while the previous one is still on the wire.
+ * The packet header is cached and rebuilt only when one of its fields changes.
+ * Packets are raw DPsoftware packets or, when enabled, compressed packets (see SerialFrameCodec).
+ */
+@Slf4j
+public class SerialWriter {
+
+    public static final int HEADER_SIZE = 15;
+    private static final byte[] MAGIC = {'D', 'P', 's', 'o', 'f', 't'};
+    // Packets ready to be encoded and packets waiting to be written
+    private static final BlockingQueue<Packet> free = new ArrayBlockingQueue<>(Constants.SERIAL_PACKET_BUFFERS);
+    private static final BlockingQueue<Packet> pending = new ArrayBlockingQueue<>(Constants.SERIAL_PACKET_BUFFERS);
+    // Compressed packets, used when enabled in the config
+    private static final SerialFrameCodec.Encoder encoder = new SerialFrameCodec.Encoder();
+    private static int[] colors = new int[0];
+    private static volatile boolean writeError = false;
+    // Cached header, fields are compared with the ones used for the last header
+    private static final byte[] header = new byte[HEADER_SIZE];
+    private static final int[] headerFields = new int[8];
+    private static boolean headerValid = false;
+    private static String lastEffect;
+    private static boolean started = false;
+
+    static {
+        for (int i = 0; i < Constants.SERIAL_PACKET_BUFFERS; i++) {
+            free.add(new Packet());
+        }
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+    }
+
+    /**
+     * Encode a frame and queue it for the writer thread.
+     * When every packet is in use the caller waits for the writer, the backlog never grows over the packet pool.
+     * If the writer is stuck for more than SERIAL_SUBMIT_TIMEOUT the frame is dropped.
+     * @param leds      frame with colors, a single LED frame is sent to every LED, latency stamps are carried to the writer
+     * @param ledNumber number of LEDs on the strip
+     * @throws InterruptedException if the caller is interrupted while waiting for a free packet
+     */
+    public static synchronized void submit(LEDFrame leds, int ledNumber) throws InterruptedException {
+
+        start();
+        Packet packet = free.poll(Constants.SERIAL_SUBMIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (packet == null) {
+            MetricsRegistry.FRAMES_DROPPED.increment();
+            return;
+        }
+        int[] rgb = leds.getRgb();
+        // Firmware that never reported the compressed format gets raw packets, it would discard the compressed ones
+        if (FireflyLuciferin.config.isSerialCompression() && FireflyLuciferin.serialCompressionSupported) {
+            encodeCompressed(packet, rgb, ledNumber);
+        } else {
+            encodeRaw(packet, rgb, ledNumber);
+        }
+        packet.captureNanos = leds.getCaptureNanos();
+        packet.dequeueNanos = leds.getDequeueNanos();
+        pending.add(packet);
+        MetricsRegistry.SERIAL_BACKLOG.set(pending.size());
+
+    }
+
+    /**
+     * Serial output metrics of a snapshot
+     * @param snapshot        metrics snapshot
+     * @param intervalSeconds seconds covered by the snapshot
+     * @return serial metrics, null if nothing has been written on the serial port
+     */
+    public static SerialMetricsDto metricsFromSnapshot(MetricsRegistry.Snapshot snapshot, int intervalSeconds) {
+
+        LatencyDto write = snapshot.get(MetricsRegistry.SERIAL_WRITE);
+        long bytes = snapshot.get(MetricsRegistry.SERIAL_BYTES);
+        if (write == null && bytes == 0) {
+            return null;
+        }
+        return new SerialMetricsDto(write, bytes / intervalSeconds, (int) snapshot.get(MetricsRegistry.SERIAL_BACKLOG));
+
+    }
+
+    /**
+     * Format serial metrics for the log
+     * @param serial serial metrics
+     * @return readable string
+     */
+    public static String metricsToLogString(SerialMetricsDto serial) {
+
+        StringBuilder sb = new StringBuilder(" --* serial");
+        if (serial.getWrite() != null) {
+            sb.append(" write p50=").append(serial.getWrite().getP50()).append("us p99=").append(serial.getWrite().getP99()).append("us");
+        }
+        sb.append(" ").append(serial.getBytesPerSecond()).append(" B/s backlog=").append(serial.getBacklog()).append(" *-- ");
+        return sb.toString();
+
+    }
+
+    /**
+     * Encode a raw DPsoftware packet, three bytes for every LED
+     * @param packet    destination packet
+     * @param rgb       colors in 0xRRGGBB format, a single color is sent to every LED
+     * @param ledNumber number of LEDs on the strip
+     */
+    private static void encodeRaw(Packet packet, int[] rgb, int ledNumber) {
+
+        packet.ensureCapacity(HEADER_SIZE + (ledNumber * 3));
+        byte[] data = packet.data;
+        System.arraycopy(currentHeader(), 0, data, 0, HEADER_SIZE);
+        int j = HEADER_SIZE;
+        for (int i = 0; i < ledNumber; i++) {
+            int color = rgb.length == 1 ? rgb[0] : rgb[i];
+            data[j++] = (byte) (color >> 16);
+            data[j++] = (byte) (color >> 8);
+            data[j++] = (byte) color;
+        }
+        packet.length = j;
+        // The device shows a full frame, the next compressed packet must not rely on an older one
+        encoder.forceKeyframe();
+
+    }
+
+    /**
+     * Encode a compressed packet, see SerialFrameCodec
+     * @param packet    destination packet
+     * @param rgb       colors in 0xRRGGBB format, a single color is sent to every LED
+     * @param ledNumber number of LEDs on the strip
+     */
+    private static void encodeCompressed(Packet packet, int[] rgb, int ledNumber) {
+
+        if (colors.length != ledNumber) {
+            colors = new int[ledNumber];
+        }
+        for (int i = 0; i < ledNumber; i++) {
+            colors[i] = rgb.length == 1 ? rgb[0] : rgb[i];
+        }
+        if (writeError) {
+            writeError = false;
+            encoder.forceKeyframe();
+        }
+        packet.ensureCapacity(SerialFrameCodec.maxPacketSize(ledNumber));
+        packet.length = encoder.encode(currentHeader(), colors, ledNumber, packet.data);
+
+    }
+
+    /**
+     * Wait until every queued packet has been written, used before turning off the strip or closing the port
+     * @param timeout max time to wait
+     * @param unit    timeout unit
+     */
+    public static void flush(long timeout, TimeUnit unit) {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (free.size() < Constants.SERIAL_PACKET_BUFFERS && System.nanoTime() - deadline < 0) {
+            CommonUtility.sleepMilliseconds(1);
+        }
+
+    }
+
+    /**
+     * Start the writer thread, once
+     */
+    private static synchronized void start() {
+
+        if (!started) {
+            started = true;
+            SchedulerManager.execute(SerialWriter::writeLoop);
+        }
+
+    }
+
+    /**
+     * Writer thread, it's the only thread that writes to the serial port
+     */
+    @SuppressWarnings("InfiniteLoopStatement")
+    private static void writeLoop() {
+
+        try {
+            while (true) {
+                Packet packet = pending.take();
+                try {
+                    OutputStream output = FireflyLuciferin.output;
+                    if (output != null) {
+                        long writeStart = System.nanoTime();
+                        output.write(packet.data, 0, packet.length);
+                        long writeNanos = System.nanoTime() - writeStart;
+                        MetricsRegistry.SERIAL_WRITE.record(writeNanos);
+                        MetricsRegistry.SERIAL_BYTES.add(packet.length);
+                        FramerateController.recordSerialWrite(packet.length, writeNanos);
+                        FrameLatency.written(packet.captureNanos, packet.dequeueNanos);
+                    }
+                } catch (IOException e) {
+                    writeError = true;
+                    log.error(e.getMessage());
+                } catch (RuntimeException e) {
+                    // Serial libraries throw unchecked exceptions when the port goes away, the writer must survive them
+                    writeError = true;
+                    log.error(e.getMessage(), e);
+                } finally {
+                    free.add(packet);
+                    MetricsRegistry.SERIAL_BACKLOG.set(pending.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Return the packet header, rebuilt only when LED number, brightness, gpio, baud rate, white temperature or effect change
+     * @return cached header with DPsoftware checksum
+     */
+    private static byte[] currentHeader() {
+
+        int ledsCountHi = ((FireflyLuciferin.ledNumHighLowCount) >> 8) & 0xff;
+        int ledsCountLo = (FireflyLuciferin.ledNumHighLowCount) & 0xff;
+        int loSecondPart = (FireflyLuciferin.ledNumHighLowCountSecondPart) & 0xff;
+        int brightnessToSend = (AudioLoopback.AUDIO_BRIGHTNESS == 255 ? CommonUtility.getNightBrightness() : AudioLoopback.AUDIO_BRIGHTNESS) & 0xff;
+        int gpioToSend = (FireflyLuciferin.gpio) & 0xff;
+        int baudRateToSend = (FireflyLuciferin.baudRate) & 0xff;
+        int whiteTempToSend = (FireflyLuciferin.whiteTemperature) & 0xff;
+        int fireflyEffectToSend = (currentEffect()) & 0xff;
+        if (ledsCountHi != headerFields[0] || ledsCountLo != headerFields[1] || loSecondPart != headerFields[2]
+                || brightnessToSend != headerFields[3] || gpioToSend != headerFields[4] || baudRateToSend != headerFields[5]
+                || whiteTempToSend != headerFields[6] || fireflyEffectToSend != headerFields[7] || !headerValid) {
+            headerValid = true;
+            headerFields[0] = ledsCountHi;
+            headerFields[1] = ledsCountLo;
+            headerFields[2] = loSecondPart;
+            headerFields[3] = brightnessToSend;
+            headerFields[4] = gpioToSend;
+            headerFields[5] = baudRateToSend;
+            headerFields[6] = whiteTempToSend;
+            headerFields[7] = fireflyEffectToSend;
+            int checksum = 0x55;
+            for (int i = 0; i < headerFields.length; i++) {
+                header[MAGIC.length + i] = (byte) headerFields[i];
+                checksum ^= headerFields[i];
+            }
+            header[HEADER_SIZE - 1] = (byte) checksum;
+        }
+        return header;
+
+    }
+
+    /**
+     * Effect to send, the effect name is looked up only when it changes
+     * @return effect number
+     */
+    private static int currentEffect() {
+
+        // Effect is set via MQTT when using Full Firmware
+        if (FireflyLuciferin.config.isMqttEnable()) {
+            FireflyLuciferin.fireflyEffect = 100;
+            lastEffect = null;
+        } else {
+            String effect = FireflyLuciferin.config.getEffect();
+            if (effect != null && !effect.equals(lastEffect)) {
+                for (Constants.Effect ef : Constants.Effect.values()) {
+                    if (ef.getEffect().equals(effect)) {
+                        FireflyLuciferin.fireflyEffect = ef.ordinal() + 1;
+                    }
+                }
+                lastEffect = effect;
+            }
+        }
+        return FireflyLuciferin.fireflyEffect;
+
+    }
+
+    /**
+     * Preallocated packet, reallocated only when it's too small for the frame
+     */
+    private static class Packet {
+
+        private byte[] data = new byte[0];
+        private int length;
+        // Latency stamps of the frame in this packet
+        private long captureNanos;
+        private long dequeueNanos;
+
+        /**
+         * Make room for a packet of the given size
+         * @param size packet size in bytes
+         */
+        void ensureCapacity(int size) {
+            if (data.length < size) {
+                data = new byte[size];
+            }
+        }
+
+    }
+
+}
@@ -23,9 +23,11 @@ package org.dpsoftware.audio;
 
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.network.MessageServer;
 import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
 
 import java.awt.*;
 import java.util.LinkedHashMap;
@@ -74,7 +76,7 @@ public class AudioLoopback {
         maxRms = Math.max(rms, maxRms);
         maxPeak = Math.max(lastPeak, maxPeak);
         // log.debug("Peak: {} RMS: {} - MaxPeak: {} MaxRMS: {}", lastPeak, rms, maxPeak, maxRms);
-        Color[] leds = new Color[MessageServer.totalLedNum];
+        LEDFrame leds = new LEDFrame(MessageServer.totalLedNum);
 
         if (FireflyLuciferin.config.getEffect().equals(Constants.Effect.MUSIC_MODE_VU_METER.getEffect())) {
             calculateVuMeterEffect(leds, lastPeak, rms, tolerance);
@@ -82,7 +84,8 @@ public class AudioLoopback {
             calculateRainbowEffect(leds);
         }
 
-        FireflyLuciferin.FPS_PRODUCER_COUNTER++;
+        MetricsRegistry.FRAMES_PRODUCED.increment();
+        MetricsRegistry.AUDIO_FRAMES.increment();
         if (CommonUtility.isSingleDeviceMainInstance() || !CommonUtility.isSingleDeviceMultiScreen()) {
             FireflyLuciferin.sharedQueue.offer(leds);
         }
@@ -116,11 +119,9 @@ public class AudioLoopback {
      * @param rms       RMS value on the sine wave
      * @param tolerance lower the gain, we don't want to set volume to 100% to use all the strip
      */
-    private static void calculateVuMeterEffect(Color[] leds, float lastPeak, float rms, float tolerance) {
+    private static void calculateVuMeterEffect(LEDFrame leds, float lastPeak, float rms, float tolerance) {
 
-        for (int i = 0; i < MessageServer.totalLedNum; i++) {
-            leds[i] = new Color(0, 0, 255);
-        }
+        leds.fill(LEDFrame.pack(0, 0, 255));
         int peakLeds = (int) ((MessageServer.totalLedNum * lastPeak) * tolerance);
         int peakYellowLeds = ((peakLeds * 30) / 100);
         int rmsLeds = (int) ((MessageServer.totalLedNum * rms) * tolerance);
@@ -132,13 +133,13 @@ public class AudioLoopback {
         }
         for (int i = 0; i < peakLeds; i++) {
             if (i < (peakLeds - peakYellowLeds)) {
-                leds[i] = new Color(255, 255, 0);
+                leds.set(i, 255, 255, 0);
             } else {
-                leds[i] = new Color(255, 0, 0);
+                leds.set(i, 255, 0, 0);
             }
         }
         for (int i = 0; i < rmsLeds; i++) {
-            leds[i] = new Color(0, 255, 0);
+            leds.set(i, 0, 255, 0);
         }
 
     }
@@ -147,11 +148,9 @@ public class AudioLoopback {
      * Create an audio rainbow effect
      * @param leds LEDs array to send to the strip
      */
-    private static void calculateRainbowEffect(Color[] leds) {
+    private static void calculateRainbowEffect(LEDFrame leds) {
 
-        for (int i = 0; i < MessageServer.totalLedNum; i++) {
-            leds[i] = Color.getHSBColor(rainbowHue, 1.0f, 1.0f);
-        }
+        leds.fill(Color.HSBtoRGB(rainbowHue, 1.0f, 1.0f));
         if (rainbowHue >= 1) rainbowHue = 0;
         rainbowHue += 0.002f;
 
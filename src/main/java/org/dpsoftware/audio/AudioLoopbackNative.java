@@ -24,6 +24,7 @@ package org.dpsoftware.audio;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.managers.SchedulerManager;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -31,8 +32,6 @@ import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.TargetDataLine;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -52,9 +51,7 @@ public class AudioLoopbackNative extends AudioLoopback implements AudioUtility {
     public void startVolumeLevelMeter() {
 
         RUNNING_AUDIO = true;
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
-
-        scheduledExecutorService.schedule(() -> {
+        SchedulerManager.executePipelineTask(() -> {
             try {
                 line = AudioSystem.getTargetDataLine(fmt);
                 line.open(fmt, bufferByteSize);
@@ -104,7 +101,6 @@ public class AudioLoopbackNative extends AudioLoopback implements AudioUtility {
             line.stop();
             line.flush();
             line.close();
-            scheduledExecutorService.shutdown();
         }, 5, TimeUnit.SECONDS);
 
     }
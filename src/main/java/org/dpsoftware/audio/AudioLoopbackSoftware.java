@@ -26,14 +26,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.managers.SchedulerManager;
 import org.dpsoftware.utilities.CommonUtility;
 import xt.audio.*;
 
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -53,9 +52,7 @@ public class AudioLoopbackSoftware extends AudioLoopback implements AudioUtility
     public void startVolumeLevelMeter() {
 
         RUNNING_AUDIO = true;
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
-
-        scheduledExecutorService.schedule(() -> {
+        SchedulerManager.executePipelineTask(() -> {
 
             try (XtPlatform platform = XtAudio.init("DPsoftwareAudio", Pointer.NULL)) {
                 Enums.XtSystem system = platform.setupToSystem(Enums.XtSetup.SYSTEM_AUDIO);
@@ -86,7 +83,6 @@ public class AudioLoopbackSoftware extends AudioLoopback implements AudioUtility
                                         Thread.onSpinWait();
                                     }
                                     stream.stop();
-                                    scheduledExecutorService.shutdown();
                                 }
                             }
                         }
@@ -95,7 +91,6 @@ public class AudioLoopbackSoftware extends AudioLoopback implements AudioUtility
             } catch (XtException e) {
                 CommonUtility.conditionedLog(AudioLoopbackNative.class.getName(), e.getMessage());
             }
-            scheduledExecutorService.shutdown();
         }, 0, TimeUnit.SECONDS);
 
     }
@@ -64,6 +64,14 @@ public class Configuration implements Cloneable {
     // Windows Desktop Duplication API
     private String captureMethod;
 
+    // ZONE_SAMPLING averages a square of pixels on every LED zone,
+    // SUMMED_AREA_TABLE averages the full zone using an integral image of the frame (GStreamer capture only)
+    public enum AveragingMode {
+        ZONE_SAMPLING,
+        SUMMED_AREA_TABLE
+    }
+    private String averagingMode = AveragingMode.ZONE_SAMPLING.name();
+
     // Serial port to use, use AUTO for automatic port search
     // NOTE: for multi display this contain the deviceName of the MQTT device where to stream
     private String serialPort;
@@ -135,6 +143,32 @@ public class Configuration implements Cloneable {
     // LED Matrix Map
     private Map<String, LinkedHashMap<Integer, LEDCoordinate>> ledMatrix;
     private boolean extendedLog = false;
+    // Average LED zones on multiple threads when there are more than PARALLEL_AVERAGING_THRESHOLD LEDs and a single producer
+    private boolean parallelAveraging = false;
+    // Temporal smoothing, weight of the new frame from 0.0 to 1.0, 1.0 disables smoothing
+    private boolean frameSmoothing = false;
+    private float smoothingAlpha = 0.5f;
+    // Interpolate frames between captures and send them at this framerate, 0 disables interpolation
+    private int interpolatedFramerate = 0;
+    // Consecutive frames with the same black bars needed to switch aspect ratio
+    private int blackBarsConsistentFrames = 10;
+    // Adjust the capture framerate to what the device and the serial port can consume, opt-in, the benchmark dialog is used otherwise
+    private boolean framerateController = false;
+    // Compressed serial packets, used only when the firmware reports it can decode them
+    private boolean serialCompression = false;
+    // Discard frames after encoding, used to benchmark the capture pipeline without a device
+    private boolean memoryOutput = false;
+    // Stream to the device IP via UDP instead of the MQTT stream topic, the firmware must support it
+    private boolean udpStream = false;
+    // Binary packed RGB on the MQTT stream topic instead of text, the firmware must support it
+    private boolean mqttBinaryStream = false;
+    // JSON parts on the MQTT stream topic instead of comma separated text, not used when the binary stream is enabled
+    private boolean mqttJsonStream = false;
+    // Max size of a message on the MQTT stream topic, bigger frames are split in multiple messages with their LED offset,
+    // 0 keeps the fixed 170 LEDs parts understood by every firmware, the firmware must support offsets to use it.
+    // Comma separated text is always a single message of at most MAX_CHUNK LEDs when no max payload is set,
+    // bigger strips need the JSON or binary stream
+    private int mqttStreamMaxPayload = 0;
     private String configVersion = "";
 
     /**
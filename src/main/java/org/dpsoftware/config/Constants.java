@@ -325,7 +325,6 @@ public class Constants {
 	public static final String ERROR_READING_CONFIG = "Error reading config file, writing a default one.";
 
 	// MQTT
-	public static final boolean JSON_STREAM = false;
 	public static final String STATE_ON_GLOWWORM = "GlowWorm";
 	public static final String STATE_ON_GLOWWORMWIFI = "GlowWormWifi";
 	public static final String DEFAULT_MQTT_HOST = "tcp://192.168.1.3";
@@ -366,6 +365,8 @@ public class Constants {
 	public static final String MQTT_CONNECTED = "Connected to MQTT Server";
 	public static final String MQTT_CANT_SEND = "Cant't send MQTT msg";
 	public static final String MQTT_STREAM_TOPIC = "/stream";
+	public static final String MQTT_STREAM_CLIENT_SUFFIX = "_stream";
+	public static final int MQTT_STREAM_WINDOW = 4;
 	public static final String MQTT_RECONNECTED = "Reconnected";
 	public static final String MQTT_DISCONNECTED = "Disconnected";
 	public static final String MQTT_START = "START";
@@ -376,6 +377,7 @@ public class Constants {
 	public static final int SECOND_CHUNK = 340;
 	public static final int THIRD_CHUNK = 510;
 	public static final int MAX_CHUNK = 510;
+	public static final int MQTT_STREAM_MIN_PAYLOAD = 256;
 	public static final String LED_NUM = "\"lednum\":";
 	public static final String STREAM = "\"stream\":[";
 	public static final String MQTT_GAMMA = "gamma";
@@ -469,6 +471,8 @@ public class Constants {
 	public static final String SERIAL_MQTTTOPIC = "mqttopic:";
 	public static final String SERIAL_MAC = "MAC:";
 	public static final String SERIAL_GPIO = "gpio:";
+	public static final String SERIAL_COMPRESSION = "compression:";
+	public static final String SERIAL_COMPRESSION_DPSRLE = "DPsrle";
 	public static final String NO_DEVICE_FOUND = "No devices found";
 
 	// Tooltips
@@ -533,6 +537,7 @@ public class Constants {
 	public static final String INTERNAL_SCALING_Y = "INTERNAL_SCALING_Y";
 	public static final int RESAMPLING_FACTOR = 8;
 	public static final String EMIT_SIGNALS = "emit-signals";
+	public static final String SINK_PAD = "sink";
 	public static final String GSTREAMER_PIPELINE_DDUPL ="video/x-raw(memory:SystemMemory),width=INTERNAL_SCALING_X,height=INTERNAL_SCALING_Y,sync=false,";
 	public static final String GSTREAMER_PIPELINE = "video/x-raw,width=INTERNAL_SCALING_X,height=INTERNAL_SCALING_Y,sync=false,";
 	public static final String BYTE_ORDER_BGR = "format=BGRx";
@@ -550,12 +555,35 @@ public class Constants {
 	public static final String GSTREAMER_PIPELINE_MAC = "avfvideosrc capture-screen=true ! videoscale ! videoconvert";
 	public static final String FRAMERATE_PLACEHOLDER = "framerate=FRAMERATE_PLACEHOLDER/1,";
 	public static final String UNLOCKED = "UNLOCKED";
+	public static final int MAX_FRAMERATE = 144;
+	public static final int FRAMERATE_CONTROLLER_MIN = 5;
+	public static final int FRAMERATE_CONTROLLER_STEP = 2;
+	public static final int FRAMERATE_CONTROLLER_HEADROOM = 2;
 	public static final int NUMBER_OF_AREA_TO_CHECK = 50;
+	public static final int BLACK_BARS_REFERENCE_HEIGHT = 2160;
+	public static final int LETTERBOX_BORDER = 240;
+	public static final int PILLARBOX_BORDER = 440;
+	public static final int PARALLEL_AVERAGING_THRESHOLD = 500;
+	public static final int PARALLEL_AVERAGING_CHUNK = 64;
+	public static final long SMOOTHING_DEFAULT_CAPTURE_INTERVAL = 33_333_333L;
+	public static final int SMOOTHING_SCENE_CUT_THRESHOLD = 48;
+	public static final int SCHEDULER_THREADS = 2;
+	public static final int SERIAL_PACKET_BUFFERS = 2;
+	public static final int SERIAL_FLUSH_TIMEOUT = 500;
+	public static final int SERIAL_SUBMIT_TIMEOUT = 500;
+	public static final int SERIAL_KEYFRAME_INTERVAL = 30;
+	public static final int SERIAL_COMPRESSION_TOLERANCE = 0;
+	public static final int UDP_STREAM_PORT = 4210;
+	public static final int UDP_MAX_PAYLOAD = 1400;
+	public static final int DEVICE_TABLE_SYNC_INTERVAL = 250;
 
 	// Message server
 	public static final String MSG_SERVER_HOST = "127.0.0.1";
 	public static final int MSG_SERVER_PORT = 5555;
 	public static final String MSG_SERVER_STATUS = "MSG_SERVER_STATUS";
+	public static final int MSG_SERVER_BUFFER_SIZE = 64 * 1024;
+	public static final String MSG_SERVER_LINE_TOO_LONG = "Message server: line too long, closing connection";
+	public static final String MSG_SERVER_CLIENT_TOO_SLOW = "Message server: client is not reading, closing connection";
 
 	// Exceptions
 	public static final String WIN32_EXCEPTION = "Win32 Exception.";
@@ -0,0 +1,158 @@
+/*
+  BlackBarDetector.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Constants;
+
+import java.nio.IntBuffer;
+
+/**
+ * Black bars detector that runs inline with the frame pass.
+ * Every frame is classified using the luminance of a few rows (letterbox) and columns (pillarbox),
+ * the aspect ratio is switched only when the same classification is seen for a number of consecutive frames.
+ * A detector is confined to the thread that grabs its frames.
+ */
+public class BlackBarDetector {
+
+    // Aspect ratio observed on the last frames and how many consecutive frames confirmed it
+    private Constants.AspectRatio candidate;
+    private int consistentFrames;
+
+    /**
+     * Classify the frame and switch aspect ratio when the classification is stable
+     * @param rgbBuffer captured frame
+     * @param width     frame width
+     * @param height    frame height
+     * @return true if the aspect ratio has been switched
+     */
+    public boolean detect(IntBuffer rgbBuffer, int width, int height) {
+
+        Constants.AspectRatio observed = classify(rgbBuffer, width, height);
+        // Dark frames (fades, loading screens) say nothing about black bars, keep the current state
+        if (observed == null) {
+            return false;
+        }
+        if (observed.getAspectRatio().equals(FireflyLuciferin.config.getDefaultLedMatrix())) {
+            candidate = null;
+            consistentFrames = 0;
+            return false;
+        }
+        if (observed != candidate) {
+            candidate = observed;
+            consistentFrames = 0;
+        }
+        if (++consistentFrames >= Math.max(1, FireflyLuciferin.config.getBlackBarsConsistentFrames())) {
+            candidate = null;
+            consistentFrames = 0;
+            ImageProcessor.switchAspectRatio(observed);
+            return true;
+        }
+        return false;
+
+    }
+
+    /**
+     * Classify a single frame, borders are proportional to the frame so it works on downscaled and full size buffers
+     * @param rgbBuffer captured frame
+     * @param width     frame width
+     * @param height    frame height
+     * @return aspect ratio of the frame, null if the frame is too dark to tell
+     */
+    Constants.AspectRatio classify(IntBuffer rgbBuffer, int width, int height) {
+
+        int letterboxBorder = Math.max(1, (height * Constants.LETTERBOX_BORDER) / Constants.BLACK_BARS_REFERENCE_HEIGHT);
+        int pillarboxBorder = Math.max(1, (height * Constants.PILLARBOX_BORDER) / Constants.BLACK_BARS_REFERENCE_HEIGHT);
+        // Content in the center is needed to tell black bars apart from a dark scene
+        boolean centerRowLit = rowLuminance(rgbBuffer, width, height / 2) > Constants.DEEP_BLACK_CHANNEL_TOLERANCE;
+        boolean centerColumnLit = columnLuminance(rgbBuffer, width, height, width / 2) > Constants.DEEP_BLACK_CHANNEL_TOLERANCE;
+        if (!centerRowLit && !centerColumnLit) {
+            return null;
+        }
+        if (centerRowLit && letterboxBorder * 2 < height
+                && rowLuminance(rgbBuffer, width, letterboxBorder / 2) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE
+                && rowLuminance(rgbBuffer, width, letterboxBorder) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE
+                && rowLuminance(rgbBuffer, width, height - 1 - letterboxBorder) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE
+                && rowLuminance(rgbBuffer, width, height - 1 - (letterboxBorder / 2)) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE) {
+            return Constants.AspectRatio.LETTERBOX;
+        }
+        if (centerColumnLit && pillarboxBorder * 2 < width
+                && columnLuminance(rgbBuffer, width, height, pillarboxBorder / 2) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE
+                && columnLuminance(rgbBuffer, width, height, pillarboxBorder) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE
+                && columnLuminance(rgbBuffer, width, height, width - 1 - pillarboxBorder) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE
+                && columnLuminance(rgbBuffer, width, height, width - 1 - (pillarboxBorder / 2)) <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE) {
+            return Constants.AspectRatio.PILLARBOX;
+        }
+        return Constants.AspectRatio.FULLSCREEN;
+
+    }
+
+    /**
+     * Max luminance of NUMBER_OF_AREA_TO_CHECK pixels on a row
+     * @param rgbBuffer captured frame
+     * @param width     frame width
+     * @param row       row to check
+     * @return max luminance, from 0 to 255
+     */
+    private static int rowLuminance(IntBuffer rgbBuffer, int width, int row) {
+
+        int step = Math.max(1, width / Constants.NUMBER_OF_AREA_TO_CHECK);
+        int rowOffset = row * width;
+        int max = 0;
+        for (int x = step / 2; x < width; x += step) {
+            max = Math.max(max, luminance(rgbBuffer.get(rowOffset + x)));
+        }
+        return max;
+
+    }
+
+    /**
+     * Max luminance of NUMBER_OF_AREA_TO_CHECK pixels on a column
+     * @param rgbBuffer captured frame
+     * @param width     frame width
+     * @param height    frame height
+     * @param column    column to check
+     * @return max luminance, from 0 to 255
+     */
+    private static int columnLuminance(IntBuffer rgbBuffer, int width, int height, int column) {
+
+        int step = Math.max(1, height / Constants.NUMBER_OF_AREA_TO_CHECK);
+        int max = 0;
+        for (int y = step / 2; y < height; y += step) {
+            max = Math.max(max, luminance(rgbBuffer.get((y * width) + column)));
+        }
+        return max;
+
+    }
+
+    /**
+     * Integer approximation of Rec. 601 luma
+     * @param rgb pixel packed as 0xRRGGBB
+     * @return luminance, from 0 to 255
+     */
+    private static int luminance(int rgb) {
+
+        return (((rgb >> 16 & 0xFF) * 77) + ((rgb >> 8 & 0xFF) * 150) + ((rgb & 0xFF) * 29)) >> 8;
+
+    }
+
+}
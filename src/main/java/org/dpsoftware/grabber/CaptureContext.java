@@ -0,0 +1,106 @@
+/*
+  CaptureContext.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Configuration;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.IntBuffer;
+
+/**
+ * Capture context owned by a single CPU/WinAPI producer.
+ * Every producer captures into its own pixel array, producers never share mutable image data
+ * and pixels are read from the backing int[] without going through the ColorModel.
+ */
+@Getter
+public class CaptureContext {
+
+    // AWT Robot can be shared between contexts, it's only used to grab a new image
+    private final Robot robot;
+    // WinAPI capture, native buffer owned by this context
+    private final CustomGDI32Util customGDI32Util;
+    // Captured pixels in 0x00RRGGBB format, reused between frames
+    private int[] pixels;
+    private IntBuffer pixelBuffer;
+    private int width;
+    private int height;
+    // Black bars detector fed with the frames captured by this context
+    private final BlackBarDetector blackBarDetector = new BlackBarDetector();
+
+    /**
+     * Constructor
+     * @param robot           an AWT Robot instance for screen capture, null when using WinAPI
+     * @param customGDI32Util WinAPI grabber owned by this context, null when using the CPU
+     */
+    public CaptureContext(Robot robot, CustomGDI32Util customGDI32Util) {
+
+        this.robot = robot;
+        this.customGDI32Util = customGDI32Util;
+
+    }
+
+    /**
+     * Grab the screen into the context pixel array
+     * @param rect screen capture rectangle, used by the AWT Robot
+     */
+    public void capture(Rectangle rect) {
+
+        if (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.WinAPI.name())) {
+            ensureCapacity(customGDI32Util.getWidth(), customGDI32Util.getHeight());
+            customGDI32Util.getScreenPixels(pixels);
+        } else {
+            BufferedImage image = robot.createScreenCapture(rect);
+            if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                // Robot creates a new image for every capture, its backing array can be used as is
+                pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                width = image.getWidth();
+                height = image.getHeight();
+                pixelBuffer = IntBuffer.wrap(pixels);
+            } else {
+                ensureCapacity(image.getWidth(), image.getHeight());
+                image.getRGB(0, 0, width, height, pixels, 0, width);
+            }
+        }
+
+    }
+
+    /**
+     * Allocate the pixel array only when the resolution changes
+     * @param width  capture width
+     * @param height capture height
+     */
+    private void ensureCapacity(int width, int height) {
+
+        if (pixels == null || this.width != width || this.height != height || pixels.length < width * height) {
+            pixels = new int[width * height];
+            pixelBuffer = IntBuffer.wrap(pixels);
+        }
+        this.width = width;
+        this.height = height;
+
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+  ColorCorrection.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Color correction stage based on precomputed lookup tables.
+ * Tables are immutable, a gamma change builds a new instance and swaps it atomically,
+ * producers grab the instance once per frame and use three array loads per LED.
+ */
+@Slf4j
+public class ColorCorrection {
+
+    private static final AtomicReference<ColorCorrection> current = new AtomicReference<>();
+    // Eye care turns near black LEDs into a dim grey
+    private static final int EYE_CARE_FLOOR = Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2;
+    private static final int EYE_CARE_THRESHOLD = 10;
+    @Getter
+    private final double gamma;
+    // Same curve for the three channels, 256 entries for every 8 bit value
+    private final int[] table = new int[256];
+
+    /**
+     * Constructor
+     * @param gamma gamma used to build the tables
+     */
+    private ColorCorrection(double gamma) {
+
+        this.gamma = gamma;
+        for (int i = 0; i < 256; i++) {
+            table[i] = (int) (255.0 * Math.pow((i / 255.0), gamma));
+        }
+
+    }
+
+    /**
+     * Return the color correction in use, tables are rebuilt if the configured gamma changed
+     * @return color correction tables
+     */
+    public static ColorCorrection getInstance() {
+
+        ColorCorrection colorCorrection = current.get();
+        double gamma = FireflyLuciferin.config.getGamma();
+        if (colorCorrection == null || colorCorrection.gamma != gamma) {
+            colorCorrection = rebuild(gamma);
+        }
+        return colorCorrection;
+
+    }
+
+    /**
+     * Build new tables and swap them with the one in use
+     * @param gamma new gamma value
+     * @return color correction tables
+     */
+    public static ColorCorrection rebuild(double gamma) {
+
+        ColorCorrection colorCorrection = new ColorCorrection(gamma);
+        current.set(colorCorrection);
+        log.debug("Color correction tables built for gamma " + gamma);
+        return colorCorrection;
+
+    }
+
+    /**
+     * Apply gamma and eye care to an averaged color
+     * @param r       red channel 0-255
+     * @param g       green channel 0-255
+     * @param b       blue channel 0-255
+     * @param eyeCare true if eye care is enabled
+     * @return corrected color packed as 0xRRGGBB
+     */
+    public int correct(int r, int g, int b, boolean eyeCare) {
+
+        r = table[r];
+        g = table[g];
+        b = table[b];
+        if (eyeCare && (r + g + b) < EYE_CARE_THRESHOLD) {
+            r = g = b = EYE_CARE_FLOOR;
+        }
+        return LEDFrame.pack(r, g, b);
+
+    }
+
+}
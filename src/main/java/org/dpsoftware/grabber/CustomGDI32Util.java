@@ -36,23 +36,19 @@ import com.sun.jna.platform.win32.WinNT.HANDLE;
 import org.dpsoftware.config.Constants;
 
 import java.awt.*;
-import java.awt.image.*;
 
 /**
  * GPU Hardware Acceleration using Java Native Access API
+ * Every capture context owns its instance, the native buffer is not shared between threads
  */
 public class CustomGDI32Util {
 
-    private static final DirectColorModel SCREENSHOT_COLOR_MODEL = new DirectColorModel(24, 16711680, 65280, 255);
-    private static final int[] SCREENSHOT_BAND_MASKS;
     private final HWND target;
     int windowWidth;
     int windowHeight;
     Memory buffer;
     int bufferSize;
     BITMAPINFO bmi;
-    DataBuffer dataBuffer;
-    BufferedImage image;
     HANDLE hOriginal;
 
     /**
@@ -77,16 +73,14 @@ public class CustomGDI32Util {
         bmi.bmiHeader.biPlanes = 1;
         bmi.bmiHeader.biBitCount = 32;
         bmi.bmiHeader.biCompression = 0;
-        dataBuffer = new DataBufferInt(buffer.getIntArray(0L, bufferSize), bufferSize);
-        image = null;
 
     }
 
     /**
-     * Take single picture at high framerate
-     * @return screenshot image
+     * Take single picture at high framerate, pixels are copied in the caller array as 0x00RRGGBB
+     * @param pixels array where to copy the screen pixels, it must contain at least width * height elements
      */
-    public BufferedImage getScreenshot() {
+    public void getScreenPixels(int[] pixels) {
 
         if (windowWidth != 0 && windowHeight != 0) {
             HDC  hdcTarget = User32.INSTANCE.GetDC(target);
@@ -95,67 +89,57 @@ public class CustomGDI32Util {
             } else {
                 HDC hdcTargetMem;
                 HBITMAP hBitmap;
+                HANDLE result;
+                try {
+                    hdcTargetMem = GDI32.INSTANCE.CreateCompatibleDC(hdcTarget);
+                    if (hdcTargetMem == null) {
+                        throw new Win32Exception(Native.getLastError());
+                    }
 
-                {
-                    HANDLE result;
-                    {
-                        try {
-                            hdcTargetMem = GDI32.INSTANCE.CreateCompatibleDC(hdcTarget);
-                            if (hdcTargetMem == null) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            hBitmap = GDI32.INSTANCE.CreateCompatibleBitmap(hdcTarget, windowWidth, windowHeight);
-                            if (hBitmap == null) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            hOriginal = GDI32.INSTANCE.SelectObject(hdcTargetMem, hBitmap);
-                            if (hOriginal == null) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            if (!GDI32.INSTANCE.BitBlt(hdcTargetMem, 0, 0, windowWidth, windowHeight, hdcTarget, 0, 0, 13369376)) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            int resultOfDrawing = GDI32.INSTANCE.GetDIBits(hdcTarget, hBitmap, 0, windowHeight, buffer, bmi, 0);
-                            if (resultOfDrawing == 0 || resultOfDrawing == 87) {
-                                throw new Win32Exception(Native.getLastError());
-                            }
-
-                            DataBuffer dataBuffer = new DataBufferInt(buffer.getIntArray(0L, bufferSize), bufferSize);
-                            WritableRaster raster = Raster.createPackedRaster(dataBuffer, windowWidth, windowHeight, windowWidth, SCREENSHOT_BAND_MASKS, null);
-                            image = new BufferedImage(SCREENSHOT_COLOR_MODEL, raster, false, null);
-
-                        } catch (Win32Exception var23) {
-                            throw new IllegalStateException(Constants.WIN32_EXCEPTION);
-                        }
-
+                    hBitmap = GDI32.INSTANCE.CreateCompatibleBitmap(hdcTarget, windowWidth, windowHeight);
+                    if (hBitmap == null) {
+                        throw new Win32Exception(Native.getLastError());
                     }
 
-                    if (hOriginal != null) {
-                        result = GDI32.INSTANCE.SelectObject(hdcTargetMem, hOriginal);
-                        if (result == null || WinGDI.HGDI_ERROR.equals(result)) {
-                            throw new IllegalStateException(Constants.SELECT_OBJ_EXCEPTION);
-                        }
+                    hOriginal = GDI32.INSTANCE.SelectObject(hdcTargetMem, hBitmap);
+                    if (hOriginal == null) {
+                        throw new Win32Exception(Native.getLastError());
                     }
 
-                    if (!GDI32.INSTANCE.DeleteObject(hBitmap)) {
-                        throw new IllegalStateException(Constants.DELETE_OBJ_EXCEPTION);
+                    if (!GDI32.INSTANCE.BitBlt(hdcTargetMem, 0, 0, windowWidth, windowHeight, hdcTarget, 0, 0, 13369376)) {
+                        throw new Win32Exception(Native.getLastError());
                     }
 
-                    if (!GDI32.INSTANCE.DeleteDC(hdcTargetMem)) {
-                        throw new IllegalStateException(Constants.DELETE_DC_EXCEPTION);
+                    int resultOfDrawing = GDI32.INSTANCE.GetDIBits(hdcTarget, hBitmap, 0, windowHeight, buffer, bmi, 0);
+                    if (resultOfDrawing == 0 || resultOfDrawing == 87) {
+                        throw new Win32Exception(Native.getLastError());
                     }
 
-                    if (0 == User32.INSTANCE.ReleaseDC(target, hdcTarget)) {
-                        throw new IllegalStateException(Constants.DEVICE_CONTEXT_RELEASE_EXCEPTION);
+                    // Copy native memory straight into the context array, no image or color model in the middle
+                    buffer.read(0L, pixels, 0, bufferSize);
+
+                } catch (Win32Exception var23) {
+                    throw new IllegalStateException(Constants.WIN32_EXCEPTION);
+                }
+
+                if (hOriginal != null) {
+                    result = GDI32.INSTANCE.SelectObject(hdcTargetMem, hOriginal);
+                    if (result == null || WinGDI.HGDI_ERROR.equals(result)) {
+                        throw new IllegalStateException(Constants.SELECT_OBJ_EXCEPTION);
                     }
                 }
 
-                return image;
+                if (!GDI32.INSTANCE.DeleteObject(hBitmap)) {
+                    throw new IllegalStateException(Constants.DELETE_OBJ_EXCEPTION);
+                }
+
+                if (!GDI32.INSTANCE.DeleteDC(hdcTargetMem)) {
+                    throw new IllegalStateException(Constants.DELETE_DC_EXCEPTION);
+                }
 
+                if (0 == User32.INSTANCE.ReleaseDC(target, hdcTarget)) {
+                    throw new IllegalStateException(Constants.DEVICE_CONTEXT_RELEASE_EXCEPTION);
+                }
             }
         } else {
             throw new IllegalStateException(Constants.WINDOWS_EXCEPTION);
@@ -163,7 +147,12 @@ public class CustomGDI32Util {
 
     }
 
-    static {
-        SCREENSHOT_BAND_MASKS = new int[]{SCREENSHOT_COLOR_MODEL.getRedMask(), SCREENSHOT_COLOR_MODEL.getGreenMask(), SCREENSHOT_COLOR_MODEL.getBlueMask()};
+    public int getWidth() {
+        return windowWidth;
     }
-}
\ No newline at end of file
+
+    public int getHeight() {
+        return windowHeight;
+    }
+
+}
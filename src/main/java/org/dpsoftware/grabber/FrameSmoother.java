@@ -0,0 +1,181 @@
+/*
+  FrameSmoother.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+
+/**
+ * Temporal smoothing stage between producers and consumer.
+ * Captured frames are filtered with a per LED exponential moving average that resets on scene cuts,
+ * output frames can be interpolated between the last two filtered frames to send more frames than the ones captured.
+ * All the buffers are allocated once, the stage is confined to the consumer thread.
+ */
+public class FrameSmoother {
+
+    // EMA weight of the new frame, from 1 to 256
+    private final int alpha;
+    private final boolean interpolate;
+    // EMA state, three channels per LED in 8.8 fixed point
+    private int[] state;
+    // Last two filtered frames, interpolation goes from the first to the second one
+    private int[] from;
+    private int[] to;
+    @Getter
+    private LEDFrame output;
+    private long lastPushNanos;
+    // Average time between captured frames
+    private long captureIntervalNanos = Constants.SMOOTHING_DEFAULT_CAPTURE_INTERVAL;
+
+    /**
+     * Constructor
+     * @param smoothingAlpha weight of the new frame, from 0.0 (static) to 1.0 (no smoothing)
+     * @param interpolate    true to interpolate between captured frames
+     */
+    public FrameSmoother(float smoothingAlpha, boolean interpolate) {
+
+        this.alpha = Math.max(1, Math.min(256, (int) (smoothingAlpha * 256)));
+        this.interpolate = interpolate;
+
+    }
+
+    /**
+     * Filter a newly captured frame
+     * @param frame     captured frame
+     * @param nowNanos  current time
+     */
+    public void push(LEDFrame frame, long nowNanos) {
+
+        int ledNumber = frame.size();
+        int[] rgb = frame.getRgb();
+        if (output == null || output.size() != ledNumber) {
+            allocate(ledNumber);
+            resetTo(rgb);
+        } else if (isSceneCut(rgb)) {
+            // Fast response on scene cuts, no fade from the previous scene
+            resetTo(rgb);
+        } else {
+            System.arraycopy(output.getRgb(), 0, from, 0, ledNumber);
+            for (int led = 0, channel = 0; led < ledNumber; led++) {
+                int color = rgb[led];
+                state[channel] += (alpha * ((((color >> 16) & 0xFF) << 8) - state[channel])) >> 8;
+                state[channel + 1] += (alpha * ((((color >> 8) & 0xFF) << 8) - state[channel + 1])) >> 8;
+                state[channel + 2] += (alpha * (((color & 0xFF) << 8) - state[channel + 2])) >> 8;
+                to[led] = LEDFrame.pack(state[channel] >> 8, state[channel + 1] >> 8, state[channel + 2] >> 8);
+                channel += 3;
+            }
+        }
+        if (lastPushNanos > 0) {
+            long interval = nowNanos - lastPushNanos;
+            captureIntervalNanos += (interval - captureIntervalNanos) >> 3;
+        }
+        lastPushNanos = nowNanos;
+        if (!interpolate) {
+            System.arraycopy(to, 0, output.getRgb(), 0, ledNumber);
+        }
+
+    }
+
+    /**
+     * Return the frame to send, interpolated if needed
+     * @param nowNanos current time
+     * @return output frame, it's reused on the next call
+     */
+    public LEDFrame next(long nowNanos) {
+
+        if (interpolate && output != null) {
+            long elapsed = nowNanos - lastPushNanos;
+            int weight = captureIntervalNanos <= 0 ? 256 : (int) Math.min(256, (elapsed << 8) / captureIntervalNanos);
+            int[] out = output.getRgb();
+            for (int led = 0; led < out.length; led++) {
+                int start = from[led], end = to[led];
+                out[led] = LEDFrame.pack(lerp((start >> 16) & 0xFF, (end >> 16) & 0xFF, weight),
+                        lerp((start >> 8) & 0xFF, (end >> 8) & 0xFF, weight),
+                        lerp(start & 0xFF, end & 0xFF, weight));
+            }
+        }
+        return output;
+
+    }
+
+    /**
+     * Linear interpolation between two channels
+     * @param start  start value
+     * @param end    end value
+     * @param weight from 0 (start) to 256 (end)
+     * @return interpolated value
+     */
+    private static int lerp(int start, int end, int weight) {
+
+        return start + (((end - start) * weight) >> 8);
+
+    }
+
+    /**
+     * Average channel difference between the new frame and the filtered one is over the scene cut threshold
+     * @param rgb new frame
+     * @return true if the scene changed
+     */
+    private boolean isSceneCut(int[] rgb) {
+
+        long difference = 0;
+        for (int led = 0; led < rgb.length; led++) {
+            int color = rgb[led], filtered = to[led];
+            difference += Math.abs(((color >> 16) & 0xFF) - ((filtered >> 16) & 0xFF))
+                    + Math.abs(((color >> 8) & 0xFF) - ((filtered >> 8) & 0xFF))
+                    + Math.abs((color & 0xFF) - (filtered & 0xFF));
+        }
+        return difference > (long) Constants.SMOOTHING_SCENE_CUT_THRESHOLD * rgb.length * 3;
+
+    }
+
+    /**
+     * Allocate buffers, only when the LED number changes
+     * @param ledNumber number of LEDs
+     */
+    private void allocate(int ledNumber) {
+
+        state = new int[ledNumber * 3];
+        from = new int[ledNumber];
+        to = new int[ledNumber];
+        output = new LEDFrame(ledNumber);
+
+    }
+
+    /**
+     * Reset the filter to the given frame
+     * @param rgb frame to use
+     */
+    private void resetTo(int[] rgb) {
+
+        for (int led = 0, channel = 0; led < rgb.length; led++) {
+            state[channel++] = ((rgb[led] >> 16) & 0xFF) << 8;
+            state[channel++] = ((rgb[led] >> 8) & 0xFF) << 8;
+            state[channel++] = (rgb[led] & 0xFF) << 8;
+        }
+        System.arraycopy(rgb, 0, from, 0, rgb.length);
+        System.arraycopy(rgb, 0, to, 0, rgb.length);
+
+    }
+
+}
@@ -24,13 +24,19 @@ package org.dpsoftware.grabber;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.audio.AudioLoopback;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.managers.FramerateController;
 import org.dpsoftware.managers.PipelineManager;
 import org.dpsoftware.network.MessageClient;
+import org.dpsoftware.utilities.FrameLatency;
+import org.dpsoftware.utilities.MetricsRegistry;
 import org.freedesktop.gstreamer.*;
 import org.freedesktop.gstreamer.elements.AppSink;
+import org.freedesktop.gstreamer.event.CapsEvent;
+import org.freedesktop.gstreamer.event.Event;
 
 import java.awt.*;
 import java.io.IOException;
@@ -38,6 +44,10 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -50,8 +60,12 @@ public class GStreamerGrabber extends javax.swing.JComponent {
 
     private final Lock bufferLock = new ReentrantLock();
     private final AppSink videosink;
-    public static LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
-    int pixelToUse = 6;
+    // Owned by the frame callback, reused until the frame resolution changes
+    private SummedAreaTable summedAreaTable;
+    private final BlackBarDetector blackBarDetector = new BlackBarDetector();
+    // Sampling plans compiled for the current frame resolution, one for every aspect ratio
+    private static final Map<String, SamplingPlan> samplingPlans = new ConcurrentHashMap<>();
+    private static final AtomicReference<SamplingPlan> activePlan = new AtomicReference<>();
 
     /**
      * Creates a new instance of GstVideoComponent
@@ -59,7 +73,9 @@ public class GStreamerGrabber extends javax.swing.JComponent {
     public GStreamerGrabber() {
 
         this(new AppSink("GstVideoComponent"));
-        ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
+        // LED matrix may be changed since the last pipeline, plans are compiled again on the first frame
+        samplingPlans.clear();
+        activePlan.set(null);
 
     }
 
@@ -72,6 +88,7 @@ public class GStreamerGrabber extends javax.swing.JComponent {
         videosink.set(Constants.EMIT_SIGNALS, true);
         AppSinkListener listener = new AppSinkListener();
         videosink.connect(listener);
+        videosink.getStaticPad(Constants.SINK_PAD).addEventProbe(listener);
         String gstreamerPipeline;
         if (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.DDUPL.name())) {
             // Scale image inside the GPU by RESAMPLING_FACTOR
@@ -87,7 +104,7 @@ public class GStreamerGrabber extends javax.swing.JComponent {
         if (!Constants.UNLOCKED.equals(FireflyLuciferin.config.getDesiredFramerate())) {
             gstreamerPipeline += Constants.FRAMERATE_PLACEHOLDER.replaceAll("FRAMERATE_PLACEHOLDER", FireflyLuciferin.config.getDesiredFramerate());
         } else {
-            gstreamerPipeline += Constants.FRAMERATE_PLACEHOLDER.replaceAll("FRAMERATE_PLACEHOLDER", "144");
+            gstreamerPipeline += Constants.FRAMERATE_PLACEHOLDER.replaceAll("FRAMERATE_PLACEHOLDER", String.valueOf(Constants.MAX_FRAMERATE));
         }
         StringBuilder caps = new StringBuilder(gstreamerPipeline);
         // JNA creates ByteBuffer using native byte order, set masks according to that.
@@ -115,69 +132,85 @@ public class GStreamerGrabber extends javax.swing.JComponent {
 
     }
 
+    /**
+     * Compile a sampling plan for every aspect ratio using the frame resolution
+     * @param width  frame width
+     * @param height frame height
+     * @return plan for the aspect ratio in use
+     */
+    static SamplingPlan compileSamplingPlans(int width, int height) {
+
+        samplingPlans.clear();
+        for (Constants.AspectRatio aspectRatio : Constants.AspectRatio.values()) {
+            LinkedHashMap<Integer, LEDCoordinate> ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(aspectRatio.getAspectRatio());
+            if (ledMatrix != null) {
+                samplingPlans.put(aspectRatio.getAspectRatio(), new SamplingPlan(aspectRatio.getAspectRatio(), ledMatrix, width, height));
+            }
+        }
+        log.debug("Sampling plans compiled for " + width + "x" + height);
+        SamplingPlan samplingPlan = samplingPlans.get(FireflyLuciferin.config.getDefaultLedMatrix());
+        activePlan.set(samplingPlan);
+        return samplingPlan;
+
+    }
+
+    /**
+     * Swap the sampling plan in use, if plans are not compiled yet the switch happens on the next frame
+     * @param aspectRatio aspect ratio to use
+     */
+    public static void switchSamplingPlan(String aspectRatio) {
+
+        SamplingPlan samplingPlan = samplingPlans.get(aspectRatio);
+        if (samplingPlan != null) {
+            activePlan.set(samplingPlan);
+        }
+
+    }
+
     /**
      * Listener callback triggered every frame
      */
-    private class AppSinkListener implements AppSink.NEW_SAMPLE {
+    private class AppSinkListener implements AppSink.NEW_SAMPLE, Pad.EVENT_PROBE {
+
+        // Set by the pad probe, consumed by the streaming thread that reads the frame geometry from the caps
+        private final AtomicBoolean capsChanged = new AtomicBoolean(true);
+        private int frameWidth;
+        private int frameHeight;
 
-        public void rgbFrame(int width, int height, IntBuffer rgbBuffer) {
+        public void rgbFrame(int width, int height, IntBuffer rgbBuffer, long captureNanos) {
 
             // If the EDT is still copying data from the buffer, just drop this frame
             if (!bufferLock.tryLock()) {
                 return;
             }
 
-            int intBufferSize = (width*height)-1;
-
-            // CHECK_ASPECT_RATIO is true 10 times per second, if true and black bars auto detection is on, auto detect black bars
-            if (FireflyLuciferin.config.isAutoDetectBlackBars()) {
-                if (ImageProcessor.CHECK_ASPECT_RATIO) {
-                    ImageProcessor.CHECK_ASPECT_RATIO = false;
-                    ImageProcessor.autodetectBlackBars(width, height, rgbBuffer);
-                }
-            }
-
             try {
-                Color[] leds = new Color[ledMatrix.size()];
-                // We need an ordered collection so no parallelStream here
-                ledMatrix.forEach((key, value) -> {
-                    int r = 0, g = 0, b = 0;
-                    int skipPixel = 1;
-                    // 6 pixel for X axis and 6 pixel for Y axis
-                    pixelToUse = (value.getDimension() / Constants.RESAMPLING_FACTOR) - 2;
-                    int pixelInUse = pixelToUse <= 0 ? 1 : pixelToUse;
-                    int pickNumber = 0;
-                    // Image grabbed has been scaled by RESAMPLING_FACTOR inside the GPU, convert coordinate to match this scale
-                    int xCoordinate = (value.getX() / Constants.RESAMPLING_FACTOR) + 2;
-                    int yCoordinate = (value.getY() / Constants.RESAMPLING_FACTOR) + 2;
-                    // We start with a negative offset
-                    for (int x = 0; x < pixelInUse; x++) {
-                        for (int y = 0; y < pixelInUse; y++) {
-                            int offsetX = (xCoordinate + (skipPixel * x));
-                            int offsetY = (yCoordinate + (skipPixel * y));
-                            int bufferOffset = (Math.min(offsetX, width))
-                                    + ((offsetY < height) ? (offsetY * width) : (height * width));
-                            int rgb = rgbBuffer.get(Math.min(intBufferSize, bufferOffset));
-                            r += rgb >> 16 & 0xFF;
-                            g += rgb >> 8 & 0xFF;
-                            b += rgb & 0xFF;
-                            pickNumber++;
-                        }
+                // Black bars are detected inline, the aspect ratio is switched only when it's stable over multiple frames
+                if (FireflyLuciferin.config.isAutoDetectBlackBars()) {
+                    blackBarDetector.detect(rgbBuffer, width, height);
+                }
+                SamplingPlan samplingPlan = activePlan.get();
+                if (samplingPlan == null || samplingPlan.getWidth() != width || samplingPlan.getHeight() != height) {
+                    samplingPlan = compileSamplingPlans(width, height);
+                }
+                LEDFrame leds = new LEDFrame(samplingPlan.getLedNumber());
+                if (Configuration.AveragingMode.SUMMED_AREA_TABLE.name().equals(FireflyLuciferin.config.getAveragingMode())) {
+                    if (summedAreaTable == null || summedAreaTable.getWidth() != width || summedAreaTable.getHeight() != height) {
+                        summedAreaTable = new SummedAreaTable(width, height);
                     }
-                    // No need for the square root here since we calculate the gamma
-                    r = ImageProcessor.gammaCorrection(r / pickNumber);
-                    g = ImageProcessor.gammaCorrection(g / pickNumber);
-                    b = ImageProcessor.gammaCorrection(b / pickNumber);
-                    if (FireflyLuciferin.config.isEyeCare() && (r+g+b) < 10) r = g = b = (Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2);
-                    leds[key - 1] = new Color(r, g, b);
-                });
+                    summedAreaTable.build(rgbBuffer);
+                    samplingPlan.sampleFullZones(summedAreaTable, leds, ColorCorrection.getInstance(), FireflyLuciferin.config.isEyeCare());
+                } else {
+                    samplingPlan.sample(rgbBuffer, leds, ColorCorrection.getInstance(), FireflyLuciferin.config.isEyeCare());
+                }
+                FrameLatency.processed(leds, captureNanos);
                 // Put the image in the queue or send it via socket to the main instance server
                 if (!AudioLoopback.RUNNING_AUDIO || Constants.Effect.MUSIC_MODE_BRIGHT.getEffect().equals(FireflyLuciferin.config.getEffect())
                         || Constants.Effect.MUSIC_MODE_RAINBOW.getEffect().equals(FireflyLuciferin.config.getEffect())) {
                     // Offer to the queue
                     PipelineManager.offerToTheQueue(leds);
                     // Increase the FPS counter
-                    FireflyLuciferin.FPS_PRODUCER_COUNTER++;
+                    MetricsRegistry.FRAMES_PRODUCED.increment();
                 }
             } finally {
                 bufferLock.unlock();
@@ -186,26 +219,55 @@ public class GStreamerGrabber extends javax.swing.JComponent {
         }
 
         /**
-         * New sample triggered every frame
+         * New sample triggered every frame, frame geometry is read from the caps only after a caps event
          * @param elem appvideosink
          * @return flow
          */
         @Override
         public FlowReturn newSample(AppSink elem) {
+            long captureNanos = System.nanoTime();
             Sample sample = elem.pullSample();
-            Structure capsStruct = sample.getCaps().getStructure(0);
-            int w = capsStruct.getInteger(Constants.WIDTH);
-            int h = capsStruct.getInteger(Constants.HEIGHT);
-            Buffer buffer = sample.getBuffer();
-            ByteBuffer bb = buffer.map(false);
-            if (bb != null) {
-                rgbFrame(w, h, bb.asIntBuffer());
-                buffer.unmap();
+            try {
+                if (capsChanged.getAndSet(false)) {
+                    Structure capsStruct = sample.getCaps().getStructure(0);
+                    frameWidth = capsStruct.getInteger(Constants.WIDTH);
+                    frameHeight = capsStruct.getInteger(Constants.HEIGHT);
+                    log.debug("Frame geometry: " + frameWidth + "x" + frameHeight);
+                }
+                // Frames over the target framerate are dropped before mapping the buffer
+                if (!FramerateController.tryAcquireFrame()) {
+                    return FlowReturn.OK;
+                }
+                Buffer buffer = sample.getBuffer();
+                // gst1-java wraps the mapped memory in a new ByteBuffer on every map, the int view can't outlive the unmap
+                ByteBuffer bb = buffer.map(false);
+                if (bb != null) {
+                    try {
+                        rgbFrame(frameWidth, frameHeight, bb.asIntBuffer(), captureNanos);
+                    } finally {
+                        buffer.unmap();
+                    }
+                }
+            } finally {
+                sample.dispose();
             }
-            sample.dispose();
             return FlowReturn.OK;
         }
 
+        /**
+         * Caps events are rare (pipeline start, resolution change), flag them so the next sample reads the new geometry
+         * @param pad   appvideosink sink pad
+         * @param event event received by the pad
+         * @return probe result, events are never dropped
+         */
+        @Override
+        public PadProbeReturn eventReceived(Pad pad, Event event) {
+            if (event instanceof CapsEvent) {
+                capsChanged.set(true);
+            }
+            return PadProbeReturn.OK;
+        }
+
     }
 
 }
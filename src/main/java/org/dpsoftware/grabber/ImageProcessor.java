@@ -26,20 +26,17 @@ import com.sun.jna.platform.win32.WinDef;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.managers.MQTTManager;
+import org.dpsoftware.utilities.FrameLatency;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.nio.IntBuffer;
-import java.util.Arrays;
 import java.util.LinkedHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Convert screen capture into a "readable signal" for LED strip
@@ -48,31 +45,17 @@ import java.util.concurrent.TimeUnit;
  */
 @Slf4j
 public class ImageProcessor {
-    
-    // Only one instace must be used, Java Garbage Collector will not be fast enough in freeing memory with more instances
-    static BufferedImage screen;
-    //Get JNA User32 Instace
-    com.sun.jna.platform.win32.User32 user32;
-    //Get desktop windows handler
-    WinDef.HWND hwnd;
+
     // LED Matrix Map
     static LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
     // Screen capture rectangle
     static Rectangle rect;
-    // Custom JNA Class for GDI32Util
-    static CustomGDI32Util customGDI32Util;
-    public static boolean CHECK_ASPECT_RATIO = true;
 
     /**
      * Constructor
      */
     public ImageProcessor(boolean initLedMatrix) {
 
-        if (NativeExecutor.isWindows()) {
-            user32 = com.sun.jna.platform.win32.User32.INSTANCE;
-            hwnd = user32.GetDesktopWindow();
-            customGDI32Util = new CustomGDI32Util(hwnd);
-        }
         if (initLedMatrix) {
             ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
             rect = new Rectangle(new Dimension((FireflyLuciferin.config.getScreenResX()*100)/FireflyLuciferin.config.getOsScaling(), (FireflyLuciferin.config.getScreenResY()*100)/FireflyLuciferin.config.getOsScaling()));
@@ -81,42 +64,52 @@ public class ImageProcessor {
     }
 
     /**
-     * Screen Capture and analysis
+     * Create a capture context for a CPU/WinAPI producer, every producer must use its own context
      * @param robot an AWT Robot instance for screen capture.
      *              One instance every three threads seems to be the hot spot for performance.
-     * @param image screenshot image
+     * @return capture context
+     */
+    public static CaptureContext createCaptureContext(Robot robot) {
+
+        CustomGDI32Util customGDI32Util = null;
+        if (NativeExecutor.isWindows() && FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.WinAPI.name())) {
+            WinDef.HWND hwnd = com.sun.jna.platform.win32.User32.INSTANCE.GetDesktopWindow();
+            customGDI32Util = new CustomGDI32Util(hwnd);
+        }
+        return new CaptureContext(robot, customGDI32Util);
+
+    }
+
+    /**
+     * Screen Capture and analysis
+     * @param captureContext capture context owned by the calling producer
      * @return array of LEDs containing the avg color to be displayed on the LED strip
      */
-    public static Color[] getColors(Robot robot, BufferedImage image) {
+    public static LEDFrame getColors(CaptureContext captureContext) {
 
         // Choose between CPU and GPU acceleration
-        if (image == null) {
-            if (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.WinAPI.name())) {
-                screen = customGDI32Util.getScreenshot();
-            } else {
-                screen = robot.createScreenCapture(rect);
-            }
-            //ImageIO.write(bi, "png", new java.io.File("screenshot.png"));
-        } else {
-            screen = image;
-        }
+        long captureNanos = System.nanoTime();
+        captureContext.capture(rect);
 
-        // CHECK_ASPECT_RATIO is true 10 times per second, if true and black bars auto detection is on, auto detect black bars
+        // Black bars are detected inline, the aspect ratio is switched only when it's stable over multiple frames
         if (FireflyLuciferin.config.isAutoDetectBlackBars()) {
-            if (ImageProcessor.CHECK_ASPECT_RATIO) {
-                ImageProcessor.CHECK_ASPECT_RATIO = false;
-                ImageProcessor.autodetectBlackBars(screen.getWidth(), screen.getHeight(), null);
-                ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
-            }
+            captureContext.getBlackBarDetector().detect(captureContext.getPixelBuffer(), captureContext.getWidth(), captureContext.getHeight());
         }
 
         int osScaling = FireflyLuciferin.config.getOsScaling();
-        Color[] leds = new Color[ledMatrix.size()];
-
-        // We need an ordered collection so no parallelStream here
-        ledMatrix.forEach((key, value) ->
-            leds[key - 1] = getAverageColor(value, osScaling)
+        ColorCorrection colorCorrection = ColorCorrection.getInstance();
+        boolean eyeCare = FireflyLuciferin.config.isEyeCare();
+        LEDFrame leds = new LEDFrame(ledMatrix.size());
+
+        // Results must stay in order, every LED writes its own slot, zones are averaged in parallel on big installations
+        LinkedHashMap<Integer, LEDCoordinate> ledMatrixInUse = ledMatrix;
+        int[] pixels = captureContext.getPixels();
+        int imageWidth = captureContext.getWidth();
+        int imageHeight = captureContext.getHeight();
+        ParallelAveraging.forEachLed(ledMatrixInUse.size(), led ->
+            leds.set(led, getAverageColor(pixels, imageWidth, imageHeight, ledMatrixInUse.get(led + 1), osScaling, colorCorrection, eyeCare))
         );
+        FrameLatency.processed(leds, captureNanos);
 
         return leds;
 
@@ -124,19 +117,24 @@ public class ImageProcessor {
 
     /**
      * Get the average color from the screen buffer section
-     * @param ledCoordinate led X,Y coordinates
-     * @param osScaling     OS scaling percentage
-     * @return the average color
+     * @param pixels          screen pixels captured by the producer
+     * @param imageWidth      width of the captured image
+     * @param imageHeight     height of the captured image
+     * @param ledCoordinate   led X,Y coordinates
+     * @param osScaling       OS scaling percentage
+     * @param colorCorrection color correction tables in use for this frame
+     * @param eyeCare         true if eye care is enabled
+     * @return the average color packed as 0xRRGGBB
      */
-    static Color getAverageColor(LEDCoordinate ledCoordinate, int osScaling) {
+    static int getAverageColor(int[] pixels, int imageWidth, int imageHeight, LEDCoordinate ledCoordinate, int osScaling, ColorCorrection colorCorrection, boolean eyeCare) {
 
         int r = 0, g = 0, b = 0;
         int skipPixel = 5;
         // 6 pixel for X axis and 6 pixel for Y axis
         int pixelToUse = 6;
         int pickNumber = 0;
-        int width = screen.getWidth()-(skipPixel*pixelToUse);
-        int height = screen.getHeight()-(skipPixel*pixelToUse);
+        int width = imageWidth-(skipPixel*pixelToUse);
+        int height = imageHeight-(skipPixel*pixelToUse);
         int xCoordinate = !(FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.CPU.name())) ? ledCoordinate.getX() : ((ledCoordinate.getX() * 100) / osScaling);
         int yCoordinate = !(FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.CPU.name())) ? ledCoordinate.getY() : ((ledCoordinate.getY() * 100) / osScaling);
 
@@ -145,31 +143,14 @@ public class ImageProcessor {
             for (int y = 0; y < pixelToUse; y++) {
                 int offsetX = (xCoordinate + (skipPixel*x));
                 int offsetY = (yCoordinate + (skipPixel*y));
-                int rgb = screen.getRGB(Math.min(offsetX, width), Math.min(offsetY, height));
-                Color color = new Color(rgb);
-                r += color.getRed();
-                g += color.getGreen();
-                b += color.getBlue();
+                int rgb = pixels[Math.min(offsetX, width) + (Math.min(offsetY, height) * imageWidth)];
+                r += rgb >> 16 & 0xFF;
+                g += rgb >> 8 & 0xFF;
+                b += rgb & 0xFF;
                 pickNumber++;
             }
         }
-        r = gammaCorrection(r / pickNumber);
-        g = gammaCorrection(g / pickNumber);
-        b = gammaCorrection(b / pickNumber);
-        if (FireflyLuciferin.config.isEyeCare() && (r+g+b) < 10) r = g = b = (Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2);
-
-        return new Color(r, g, b);
-
-    }
-
-    /**
-     * Adjust gamma based on a given color
-     * @param color the color to adjust
-     * @return the average color
-     */
-    public static int gammaCorrection(int color) {
-
-        return (int) (255.0 *  Math.pow((color/255.0), FireflyLuciferin.config.getGamma()));
+        return colorCorrection.correct(r / pickNumber, g / pickNumber, b / pickNumber, eyeCare);
 
     }
 
@@ -232,159 +213,20 @@ public class ImageProcessor {
     }
 
     /**
-     * Auto detect black bars when screen grabbing, set Fullscreen, Letterbox or Pillarbox accordingly
-     * @param width     screen width with scale ratio
-     * @param height    screen height with scale ratio
-     * @param rgbBuffer full screen captured buffer
-     */
-    public static void autodetectBlackBars(int width, int height, IntBuffer rgbBuffer) {
-
-        int intBufferSize = (width*height)-1;
-        int[][] blackPixelMatrix;
-        blackPixelMatrix = calculateBlackPixels(Constants.AspectRatio.LETTERBOX, width, height, intBufferSize, rgbBuffer);
-        boolean letterbox = switchAspectRatio(Constants.AspectRatio.LETTERBOX, blackPixelMatrix, false);
-        blackPixelMatrix = calculateBlackPixels(Constants.AspectRatio.PILLARBOX, width, height, intBufferSize, rgbBuffer);
-        boolean pillarbox = false;
-        if (!letterbox) {
-            pillarbox = switchAspectRatio(Constants.AspectRatio.PILLARBOX, blackPixelMatrix, false);
-        }
-        if (!letterbox && !pillarbox) {
-            switchAspectRatio(Constants.AspectRatio.PILLARBOX, blackPixelMatrix, true);
-        }
-
-
-    }
-
-    /**
-     * Calculate black pixels and put it into an array, works for every supported aspect ratios
-     * @param aspectRatio   If not Letterbox is Pillarbox
-     * @param width         screen width with scale ratio
-     * @param height        screen height with scale ratio
-     * @param intBufferSize buffer size
-     * @param rgbBuffer     full screen captured buffer
-     * @return black pixels array, 0 for light pixel, 1 for black pixel
+     * Switch to a new aspect ratio, called by the black bars detector once the new aspect ratio is stable
+     * @param aspectRatio Fullscreen, Letterbox or Pillarbox
      */
-    static int[][] calculateBlackPixels(Constants.AspectRatio aspectRatio, int width, int height, int intBufferSize, IntBuffer rgbBuffer) {
-
-        int[][] blackPixelMatrix = new int[3][Constants.NUMBER_OF_AREA_TO_CHECK];
-        int offsetX;
-        int offsetY;
-        int chunkSize = (aspectRatio == Constants.AspectRatio.LETTERBOX ? width : height) / Constants.NUMBER_OF_AREA_TO_CHECK;
-        int threeWayOffset;
-        for (int i = 0; i < (Constants.NUMBER_OF_AREA_TO_CHECK * 3); i++) {
-            int j;
-            int columnRowIndex;
-            if (i < Constants.NUMBER_OF_AREA_TO_CHECK) {
-                threeWayOffset = calculateBorders(aspectRatio);
-                columnRowIndex = i;
-                j = 0;
-            } else if (i < (Constants.NUMBER_OF_AREA_TO_CHECK * 2)) {
-                threeWayOffset = (aspectRatio == Constants.AspectRatio.LETTERBOX ? height : width) / 2;
-                columnRowIndex = i - Constants.NUMBER_OF_AREA_TO_CHECK;
-                j = 1;
-            } else {
-                threeWayOffset = (aspectRatio == Constants.AspectRatio.LETTERBOX ? height : width) - calculateBorders(aspectRatio);
-                columnRowIndex = i - (Constants.NUMBER_OF_AREA_TO_CHECK * 2);
-                j = 2;
-            }
-            int chunkSizeOffset = (i > 0) ? chunkSize * columnRowIndex : chunkSize;
-            // If not Letterbox is Pillarbox
-            if (aspectRatio == Constants.AspectRatio.LETTERBOX) {
-                offsetX = chunkSizeOffset;
-                offsetY = threeWayOffset;
-            } else {
-                offsetX = threeWayOffset;
-                offsetY = chunkSizeOffset;
-            }
-            int r, g, b;
-            // DUPL
-            if (rgbBuffer != null) {
-                int bufferOffset = (Math.min(offsetX, width)) + ((offsetY < height) ? (offsetY * width) : (height * width));
-                int rgb = rgbBuffer.get(Math.min(intBufferSize, bufferOffset));
-                r = rgb >> 16 & 0xFF;
-                g = rgb >> 8 & 0xFF;
-                b = rgb & 0xFF;
-            } else { // Other methods
-                int rgb = screen.getRGB(Math.min(offsetX, width), Math.min(offsetY, height));
-                Color color = new Color(rgb);
-                r = color.getRed();
-                g = color.getGreen();
-                b = color.getBlue();
-            }
-            if (r <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE && g <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE && b <= Constants.DEEP_BLACK_CHANNEL_TOLERANCE) {
-                blackPixelMatrix[j][columnRowIndex] = 1;
-            } else {
-                blackPixelMatrix[j][columnRowIndex] = 0;
+    static synchronized void switchAspectRatio(Constants.AspectRatio aspectRatio) {
+
+        if (!FireflyLuciferin.config.getDefaultLedMatrix().equals(aspectRatio.getAspectRatio())) {
+            FireflyLuciferin.config.setDefaultLedMatrix(aspectRatio.getAspectRatio());
+            GStreamerGrabber.switchSamplingPlan(aspectRatio.getAspectRatio());
+            ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(aspectRatio.getAspectRatio());
+            log.debug("Switching to " + aspectRatio.getAspectRatio() + " aspect ratio.");
+            if (FireflyLuciferin.config.isMqttEnable()) {
+                MQTTManager.publishToTopic(Constants.ASPECT_RATIO_TOPIC, aspectRatio.getAspectRatio());
             }
         }
-        return blackPixelMatrix;
-
-    }
-
-    /**
-     * Switch to the new aspect ratio based on black bars
-     * @param aspectRatio      Letterbox or Pillarbox
-     * @param blackPixelMatrix contains black and non black pixels
-     * @return boolean if aspect ratio is changed
-     */
-    static boolean switchAspectRatio(Constants.AspectRatio aspectRatio, int[][] blackPixelMatrix, boolean setFullscreen) {
-
-        boolean isPillarboxLetterbox;
-        int topMatrix = Arrays.stream(blackPixelMatrix[0]).sum();
-        int centerMatrix = Arrays.stream(blackPixelMatrix[1]).sum();
-        int bottomMatrix = Arrays.stream(blackPixelMatrix[2]).sum();
-        // NUMBER_OF_AREA_TO_CHECK must be black on botton/top left/right, center pixels must be less than NUMBER_OF_AREA_TO_CHECK (at least on NON black pixel in the center)
-        if (topMatrix == Constants.NUMBER_OF_AREA_TO_CHECK && centerMatrix < Constants.NUMBER_OF_AREA_TO_CHECK && bottomMatrix == Constants.NUMBER_OF_AREA_TO_CHECK) {
-            if (!FireflyLuciferin.config.getDefaultLedMatrix().equals(aspectRatio.getAspectRatio())) {
-                FireflyLuciferin.config.setDefaultLedMatrix(aspectRatio.getAspectRatio());
-                GStreamerGrabber.ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(aspectRatio.getAspectRatio());
-                log.debug("Switching to " + aspectRatio.getAspectRatio() + " aspect ratio.");
-                if (FireflyLuciferin.config.isMqttEnable()) {
-                    MQTTManager.publishToTopic(Constants.ASPECT_RATIO_TOPIC, aspectRatio.getAspectRatio());
-                }
-            }
-            isPillarboxLetterbox = true;
-        } else {
-            if (!FireflyLuciferin.config.getDefaultLedMatrix().equals(Constants.AspectRatio.FULLSCREEN.getAspectRatio())) {
-                if (setFullscreen) {
-                    FireflyLuciferin.config.setDefaultLedMatrix(Constants.AspectRatio.FULLSCREEN.getAspectRatio());
-                    GStreamerGrabber.ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(Constants.AspectRatio.FULLSCREEN.getAspectRatio());
-                    log.debug("Switching to " + Constants.AspectRatio.FULLSCREEN.getAspectRatio() + " aspect ratio.");
-                    if (FireflyLuciferin.config.isMqttEnable()) {
-                        MQTTManager.publishToTopic(Constants.ASPECT_RATIO_TOPIC, Constants.AspectRatio.FULLSCREEN.getAspectRatio());
-                    }
-                }
-            }
-            isPillarboxLetterbox = false;
-        }
-        return isPillarboxLetterbox;
-
-    }
-
-    /**
-     * Calculate borders for auto aspect ratio
-     * @param aspectRatio Letterbox or Pillarbox
-     * @return borders
-     */
-    public static int calculateBorders(Constants.AspectRatio aspectRatio) {
-
-        if (aspectRatio == Constants.AspectRatio.LETTERBOX) {
-            return (((FireflyLuciferin.config.getScreenResY() * 280) / 2160) / Constants.RESAMPLING_FACTOR) - 5;
-        } else {
-            return (((FireflyLuciferin.config.getScreenResY() * 480) / 2160) / Constants.RESAMPLING_FACTOR) - 5;
-        }
-
-    }
-
-    /**
-     * Unlock black bars algorithm every 100 milliseconds
-     */
-    public void calculateBorders() {
-
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
-        // Create a task that runs 10 times per second
-        Runnable framerateTask = () -> ImageProcessor.CHECK_ASPECT_RATIO = true;
-        scheduledExecutorService.scheduleAtFixedRate(framerateTask, 1, 100, TimeUnit.MILLISECONDS);
 
     }
 
@@ -0,0 +1,114 @@
+/*
+  ParallelAveraging.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Setter;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Constants;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Average LED zones on a ForkJoin pool when the LED count is big enough.
+ * Every LED writes its own slot in the output frame, order is preserved without locks.
+ */
+public class ParallelAveraging {
+
+    private static ForkJoinPool forkJoinPool;
+    // Number of threads producing frames, when more than one the cores are already busy and forking only adds overhead
+    @Setter
+    private static volatile int producerThreads = 1;
+
+    /**
+     * Run the averaging action on every LED index, in parallel if there are enough LEDs
+     * @param ledNumber     number of LEDs in the frame
+     * @param averageAction action that averages a single LED and writes it in its slot
+     */
+    public static void forEachLed(int ledNumber, IntConsumer averageAction) {
+
+        if (isParallel(ledNumber)) {
+            getPool().invoke(new LedRangeTask(0, ledNumber, averageAction));
+        } else {
+            for (int led = 0; led < ledNumber; led++) {
+                averageAction.accept(led);
+            }
+        }
+
+    }
+
+    /**
+     * Check if the parallel path should be used
+     * @param ledNumber number of LEDs in the frame
+     * @return true if LEDs are averaged in parallel
+     */
+    static boolean isParallel(int ledNumber) {
+
+        return FireflyLuciferin.config.isParallelAveraging() && producerThreads <= 1
+                && ledNumber >= Constants.PARALLEL_AVERAGING_THRESHOLD;
+
+    }
+
+    /**
+     * Lazy init the pool, it's not needed on small installations
+     * @return pool used for the averaging
+     */
+    static synchronized ForkJoinPool getPool() {
+
+        if (forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return forkJoinPool;
+
+    }
+
+    /**
+     * Split the LED range until it's small enough to be averaged on a single thread
+     */
+    private static class LedRangeTask extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+        private final IntConsumer averageAction;
+
+        LedRangeTask(int from, int to, IntConsumer averageAction) {
+            this.from = from;
+            this.to = to;
+            this.averageAction = averageAction;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= Constants.PARALLEL_AVERAGING_CHUNK) {
+                for (int led = from; led < to; led++) {
+                    averageAction.accept(led);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LedRangeTask(from, middle, averageAction), new LedRangeTask(middle, to, averageAction));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+  SamplingPlan.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+
+import java.nio.IntBuffer;
+import java.util.LinkedHashMap;
+
+/**
+ * LED matrix compiled for a given frame resolution.
+ * Every LED zone is turned into a list of buffer offsets so the frame callback
+ * only walks flat int arrays instead of recomputing coordinates for every frame.
+ */
+@Getter
+public class SamplingPlan {
+
+    private final String aspectRatio;
+    private final int width;
+    private final int height;
+    private final int ledNumber;
+    // Buffer offsets of every sampled pixel, LED after LED
+    private final int[] offsets;
+    // Number of pixels sampled for every LED
+    private final int[] pixelCount;
+    // Position of the first offset of every LED
+    private final int[] ledStart;
+    // Summed area table corners of the full LED zone (top left, top right, bottom left, bottom right)
+    private final int[] zoneCorners;
+    // Number of pixels in the full LED zone
+    private final int[] zoneArea;
+
+    /**
+     * Compile the sampling plan for a LED matrix
+     * @param aspectRatio aspect ratio of the LED matrix
+     * @param ledMatrix   LED matrix to compile
+     * @param width       width of the frame, already scaled by RESAMPLING_FACTOR
+     * @param height      height of the frame, already scaled by RESAMPLING_FACTOR
+     */
+    public SamplingPlan(String aspectRatio, LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int width, int height) {
+
+        this.aspectRatio = aspectRatio;
+        this.width = width;
+        this.height = height;
+        this.ledNumber = ledMatrix.size();
+        this.pixelCount = new int[ledNumber];
+        this.ledStart = new int[ledNumber];
+        this.zoneCorners = new int[ledNumber * 4];
+        this.zoneArea = new int[ledNumber];
+        int totalPixels = 0;
+        for (LEDCoordinate ledCoordinate : ledMatrix.values()) {
+            int pixelInUse = getPixelInUse(ledCoordinate);
+            totalPixels += pixelInUse * pixelInUse;
+        }
+        this.offsets = new int[totalPixels];
+        int intBufferSize = (width * height) - 1;
+        int position = 0;
+        // LED matrix keys start from 1, offsets are stored following the keys order
+        for (int key = 1; key <= ledNumber; key++) {
+            LEDCoordinate ledCoordinate = ledMatrix.get(key);
+            int pixelInUse = getPixelInUse(ledCoordinate);
+            ledStart[key - 1] = position;
+            pixelCount[key - 1] = pixelInUse * pixelInUse;
+            // Image grabbed has been scaled by RESAMPLING_FACTOR inside the GPU, convert coordinate to match this scale
+            int xCoordinate = (ledCoordinate.getX() / Constants.RESAMPLING_FACTOR) + 2;
+            int yCoordinate = (ledCoordinate.getY() / Constants.RESAMPLING_FACTOR) + 2;
+            compileFullZone(key - 1, ledCoordinate);
+            for (int x = 0; x < pixelInUse; x++) {
+                for (int y = 0; y < pixelInUse; y++) {
+                    int offsetX = xCoordinate + x;
+                    int offsetY = yCoordinate + y;
+                    int bufferOffset = (Math.min(offsetX, width))
+                            + ((offsetY < height) ? (offsetY * width) : (height * width));
+                    offsets[position++] = Math.min(intBufferSize, bufferOffset);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Store the corners of the full rectangle covered by a LED, scaled by RESAMPLING_FACTOR and clamped to the frame
+     * @param led           LED index
+     * @param ledCoordinate LED zone
+     */
+    private void compileFullZone(int led, LEDCoordinate ledCoordinate) {
+
+        int stride = width + 1;
+        int x0 = Math.max(0, Math.min(ledCoordinate.getX() / Constants.RESAMPLING_FACTOR, width - 1));
+        int y0 = Math.max(0, Math.min(ledCoordinate.getY() / Constants.RESAMPLING_FACTOR, height - 1));
+        int x1 = Math.max(x0 + 1, Math.min((ledCoordinate.getX() + ledCoordinate.getDimension()) / Constants.RESAMPLING_FACTOR, width));
+        int y1 = Math.max(y0 + 1, Math.min((ledCoordinate.getY() + ledCoordinate.getDimension()) / Constants.RESAMPLING_FACTOR, height));
+        zoneCorners[led * 4] = y0 * stride + x0;
+        zoneCorners[(led * 4) + 1] = y0 * stride + x1;
+        zoneCorners[(led * 4) + 2] = y1 * stride + x0;
+        zoneCorners[(led * 4) + 3] = y1 * stride + x1;
+        zoneArea[led] = (x1 - x0) * (y1 - y0);
+
+    }
+
+    /**
+     * Number of pixels to use on every axis for a LED zone
+     * @param ledCoordinate LED zone
+     * @return pixels to use on X and Y axis
+     */
+    static int getPixelInUse(LEDCoordinate ledCoordinate) {
+
+        int pixelToUse = (ledCoordinate.getDimension() / Constants.RESAMPLING_FACTOR) - 2;
+        return pixelToUse <= 0 ? 1 : pixelToUse;
+
+    }
+
+    /**
+     * Average every LED zone and write the corrected colors into the frame
+     * @param rgbBuffer       captured frame
+     * @param leds            frame where to write the colors
+     * @param colorCorrection color correction tables in use for this frame
+     * @param eyeCare         true if eye care is enabled
+     */
+    public void sample(IntBuffer rgbBuffer, LEDFrame leds, ColorCorrection colorCorrection, boolean eyeCare) {
+
+        ParallelAveraging.forEachLed(ledNumber, led -> leds.set(led, averageLed(led, rgbBuffer, colorCorrection, eyeCare)));
+
+    }
+
+    /**
+     * Average the full zone of every LED using the summed area table of the frame
+     * @param summedAreaTable table built on the current frame, same resolution of this plan
+     * @param leds            frame where to write the colors
+     * @param colorCorrection color correction tables in use for this frame
+     * @param eyeCare         true if eye care is enabled
+     */
+    public void sampleFullZones(SummedAreaTable summedAreaTable, LEDFrame leds, ColorCorrection colorCorrection, boolean eyeCare) {
+
+        int[] red = summedAreaTable.getRed();
+        int[] green = summedAreaTable.getGreen();
+        int[] blue = summedAreaTable.getBlue();
+        ParallelAveraging.forEachLed(ledNumber, led -> {
+            int corner = led * 4;
+            int topLeft = zoneCorners[corner], topRight = zoneCorners[corner + 1];
+            int bottomLeft = zoneCorners[corner + 2], bottomRight = zoneCorners[corner + 3];
+            int area = zoneArea[led];
+            leds.set(led, colorCorrection.correct(SummedAreaTable.sum(red, topLeft, topRight, bottomLeft, bottomRight) / area,
+                    SummedAreaTable.sum(green, topLeft, topRight, bottomLeft, bottomRight) / area,
+                    SummedAreaTable.sum(blue, topLeft, topRight, bottomLeft, bottomRight) / area, eyeCare));
+        });
+
+    }
+
+    /**
+     * Average a single LED zone, absolute reads only so it can be called from multiple threads
+     * @param led             LED index
+     * @param rgbBuffer       captured frame
+     * @param colorCorrection color correction tables in use for this frame
+     * @param eyeCare         true if eye care is enabled
+     * @return corrected color packed as 0xRRGGBB
+     */
+    int averageLed(int led, IntBuffer rgbBuffer, ColorCorrection colorCorrection, boolean eyeCare) {
+
+        int r = 0, g = 0, b = 0;
+        int pickNumber = pixelCount[led];
+        int position = ledStart[led];
+        for (int i = 0; i < pickNumber; i++) {
+            int rgb = rgbBuffer.get(offsets[position++]);
+            r += rgb >> 16 & 0xFF;
+            g += rgb >> 8 & 0xFF;
+            b += rgb & 0xFF;
+        }
+        return colorCorrection.correct(r / pickNumber, g / pickNumber, b / pickNumber, eyeCare);
+
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+  SummedAreaTable.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+
+import java.nio.IntBuffer;
+
+/**
+ * Summed area table (integral image) of a downscaled frame, one table per channel.
+ * Built once per frame in O(pixels), then the sum of any rectangle costs four reads,
+ * every LED can be averaged on its full zone without sampling a grid.
+ * Tables have one extra row and column of zeroes, index of (x, y) is y * (width + 1) + x.
+ * Int tables are enough for downscaled frames (up to 8 million pixels).
+ */
+@Getter
+public class SummedAreaTable {
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+
+    /**
+     * Constructor, tables are allocated once and reused for every frame with the same resolution
+     * @param width  frame width
+     * @param height frame height
+     */
+    public SummedAreaTable(int width, int height) {
+
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int size = stride * (height + 1);
+        red = new int[size];
+        green = new int[size];
+        blue = new int[size];
+
+    }
+
+    /**
+     * Build the tables from a captured frame
+     * @param rgbBuffer captured frame
+     */
+    public void build(IntBuffer rgbBuffer) {
+
+        int pixel = 0;
+        for (int y = 0; y < height; y++) {
+            int rowR = 0, rowG = 0, rowB = 0;
+            int above = y * stride + 1;
+            int index = above + stride;
+            for (int x = 0; x < width; x++) {
+                int rgb = rgbBuffer.get(pixel++);
+                rowR += rgb >> 16 & 0xFF;
+                rowG += rgb >> 8 & 0xFF;
+                rowB += rgb & 0xFF;
+                red[index] = red[above] + rowR;
+                green[index] = green[above] + rowG;
+                blue[index] = blue[above] + rowB;
+                index++;
+                above++;
+            }
+        }
+
+    }
+
+    /**
+     * Table index of a corner
+     * @param x x coordinate, from 0 to width
+     * @param y y coordinate, from 0 to height
+     * @return table index
+     */
+    public int index(int x, int y) {
+
+        return y * stride + x;
+
+    }
+
+    /**
+     * Sum of a channel inside a rectangle, corners are table indexes
+     * @param table       channel table
+     * @param topLeft     index of the top left corner
+     * @param topRight    index of the top right corner
+     * @param bottomLeft  index of the bottom left corner
+     * @param bottomRight index of the bottom right corner
+     * @return sum of the channel
+     */
+    static int sum(int[] table, int topLeft, int topRight, int bottomLeft, int bottomRight) {
+
+        return table[bottomRight] - table[topRight] - table[bottomLeft] + table[topLeft];
+
+    }
+
+}
@@ -263,7 +263,7 @@ public class GUIManager extends JFrame {
                                 ((CheckboxMenuItem) popup.getItem(i)).setState(true);
                                 FireflyLuciferin.config.setDefaultLedMatrix(checkboxMenuItem.getLabel());
                                 log.info(Constants.CAPTURE_MODE_CHANGED + checkboxMenuItem.getLabel());
-                                GStreamerGrabber.ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(checkboxMenuItem.getLabel());
+                                GStreamerGrabber.switchSamplingPlan(checkboxMenuItem.getLabel());
                                 FireflyLuciferin.config.setAutoDetectBlackBars(false);
                                 if (FireflyLuciferin.config.isMqttEnable()) {
                                     MQTTManager.publishToTopic(Constants.ASPECT_RATIO_TOPIC, checkboxMenuItem.getLabel());
@@ -36,6 +36,7 @@ import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
 
 import java.util.Objects;
 
@@ -234,8 +235,8 @@ public class ControlTabController {
                         settingsController.manageDeviceList();
                     } else {
                         settingsController.manageDeviceList();
-                        setProducerValue("Producing @ " + FireflyLuciferin.FPS_PRODUCER + " FPS");
-                        setConsumerValue("Consuming @ " + FireflyLuciferin.FPS_GW_CONSUMER + " FPS");
+                        setProducerValue("Producing @ " + MetricsRegistry.FPS_PRODUCER.get() + " FPS");
+                        setConsumerValue("Consuming @ " + MetricsRegistry.FPS_GW_CONSUMER.get() + " FPS");
                         if (FireflyLuciferin.RUNNING && controlImage != null && controlImage.getUrl().contains("waiting")) {
                             controlImage = setImage(Constants.PlayerStatus.PLAY);
                             setButtonImage();
@@ -32,14 +32,17 @@ import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.dpsoftware.managers.DeviceRegistry;
 import org.dpsoftware.managers.DisplayManager;
 import org.dpsoftware.managers.MQTTManager;
 import org.dpsoftware.managers.dto.FirmwareConfigDto;
 import org.dpsoftware.utilities.CommonUtility;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -68,6 +71,7 @@ public class DevicesTabController {
     @FXML private Label versionLabel;
     @FXML public ComboBox<String> multiMonitor;
     @FXML public CheckBox syncCheck;
+    // View of the DeviceRegistry, updated on the JavaFX thread only
     public static ObservableList<GlowWormDevice> deviceTableData = FXCollections.observableArrayList();
     boolean cellEdit = false;
 
@@ -189,8 +193,8 @@ public class DevicesTabController {
         if (!cellEdit) {
             Calendar calendar = Calendar.getInstance();
             Calendar calendarTemp = Calendar.getInstance();
-            ObservableList<GlowWormDevice> deviceTableDataToRemove = FXCollections.observableArrayList();
-            deviceTableData.forEach(glowWormDevice -> {
+            List<GlowWormDevice> deviceTableDataToRemove = new ArrayList<>();
+            DeviceRegistry.getDevices().forEach(glowWormDevice -> {
                 calendar.setTime(new Date());
                 calendarTemp.setTime(new Date());
                 calendar.add(Calendar.SECOND, - 20);
@@ -204,7 +208,7 @@ public class DevicesTabController {
                     log.error(e.getMessage());
                 }
             });
-            deviceTableData.removeAll(deviceTableDataToRemove);
+            DeviceRegistry.removeAll(deviceTableDataToRemove);
             deviceTable.refresh();
         }
 
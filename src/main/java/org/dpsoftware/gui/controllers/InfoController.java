@@ -35,6 +35,7 @@ import javafx.stage.Stage;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.utilities.MetricsRegistry;
 
 /**
  * FXML Info Controller
@@ -87,8 +88,8 @@ public class InfoController {
             public void handle(long now) {
                 long lastUpdate = 0;
                 if (now - lastUpdate >= 1_000_000_000) {
-                    setProducerValue("Producing @ " + FireflyLuciferin.FPS_PRODUCER + " FPS");
-                    setConsumerValue("Consuming @ " + FireflyLuciferin.FPS_GW_CONSUMER + " FPS");
+                    setProducerValue("Producing @ " + MetricsRegistry.FPS_PRODUCER.get() + " FPS");
+                    setConsumerValue("Consuming @ " + MetricsRegistry.FPS_GW_CONSUMER.get() + " FPS");
                 }
             }
         };
@@ -30,15 +30,18 @@ import javafx.scene.layout.RowConstraints;
 import javafx.scene.paint.Color;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.audio.AudioLoopback;
 import org.dpsoftware.audio.AudioLoopbackSoftware;
 import org.dpsoftware.audio.AudioUtility;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.grabber.ColorCorrection;
 import org.dpsoftware.gui.WidgetFactory;
 import org.dpsoftware.managers.MQTTManager;
 import org.dpsoftware.managers.PipelineManager;
+import org.dpsoftware.managers.SchedulerManager;
 import org.dpsoftware.managers.dto.ColorDto;
 import org.dpsoftware.managers.dto.GammaDto;
 import org.dpsoftware.managers.dto.StateDto;
@@ -48,8 +51,6 @@ import java.io.IOException;
 import java.text.DecimalFormat;
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -248,9 +249,8 @@ public class MiscTabController {
      */
     void sendSerialParams() {
 
-        java.awt.Color[] leds = new java.awt.Color[1];
         try {
-            leds[0] = new java.awt.Color((int)(colorPicker.getValue().getRed() * 255),
+            LEDFrame leds = LEDFrame.solid(1, (int)(colorPicker.getValue().getRed() * 255),
                     (int)(colorPicker.getValue().getGreen() * 255),
                     (int)(colorPicker.getValue().getBlue() * 255));
             FireflyLuciferin.sendColorsViaUSB(leds);
@@ -294,6 +294,7 @@ public class MiscTabController {
                         CommonUtility.toJsonString(gammaDto));
             }
             FireflyLuciferin.config.setGamma(Double.parseDouble(gamma));
+            ColorCorrection.rebuild(FireflyLuciferin.config.getGamma());
         });
         // White temperature can be changed on the fly
         whiteTemperature.valueProperty().addListener((ov, t, kelvin) -> {
@@ -318,8 +319,7 @@ public class MiscTabController {
             if (FireflyLuciferin.config != null) {
                 if (!oldVal.equals(newVal)) {
                     FireflyLuciferin.guiManager.stopCapturingThreads(FireflyLuciferin.RUNNING);
-                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-                    executor.schedule(() -> {
+                    SchedulerManager.scheduleBlocking(() -> {
                         FireflyLuciferin.config.setEffect(newVal);
                         PipelineManager.lastEffectInUse = newVal;
                         FireflyLuciferin.config.setToggleLed(true);
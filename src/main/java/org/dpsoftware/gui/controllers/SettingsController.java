@@ -36,10 +36,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.JavaFXStarter;
 import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.NativeExecutor;
+import org.dpsoftware.SerialWriter;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.gui.elements.DisplayInfo;
+import org.dpsoftware.managers.DeviceRegistry;
 import org.dpsoftware.managers.DisplayManager;
 import org.dpsoftware.managers.MQTTManager;
 import org.dpsoftware.managers.StorageManager;
@@ -51,6 +54,7 @@ import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -434,11 +438,11 @@ public class SettingsController {
 
         FirmwareConfigDto firmwareConfigDto = new FirmwareConfigDto();
         if (currentConfig.isMqttEnable()) {
-            if (DevicesTabController.deviceTableData != null && DevicesTabController.deviceTableData.size() > 0) {
+            if (!DeviceRegistry.isEmpty()) {
                 if (Constants.SERIAL_PORT_AUTO.equals(modeTabController.serialPort.getValue())) {
-                    firmwareConfigDto.setMAC(DevicesTabController.deviceTableData.get(0).getMac());
+                    firmwareConfigDto.setMAC(DeviceRegistry.getFirst().getMac());
                 }
-                DevicesTabController.deviceTableData.forEach(glowWormDevice -> {
+                DeviceRegistry.getDevices().forEach(glowWormDevice -> {
                     if (glowWormDevice.getDeviceName().equals(modeTabController.serialPort.getValue()) || glowWormDevice.getDeviceIP().equals(modeTabController.serialPort.getValue())) {
                         firmwareConfigDto.setMAC(glowWormDevice.getMac());
                     }
@@ -608,7 +612,7 @@ public class SettingsController {
             if (!modeTabController.serialPort.isFocused()) {
                 String deviceInUse = modeTabController.serialPort.getValue();
                 modeTabController.serialPort.getItems().clear();
-                DevicesTabController.deviceTableData.forEach(glowWormDevice -> modeTabController.serialPort.getItems().add(glowWormDevice.getDeviceName()));
+                DeviceRegistry.getDevices().forEach(glowWormDevice -> modeTabController.serialPort.getItems().add(glowWormDevice.getDeviceName()));
                 modeTabController.serialPort.setValue(deviceInUse);
             }
         }
@@ -673,11 +677,10 @@ public class SettingsController {
                 stateDto.setWhitetemp(FireflyLuciferin.config.getWhiteTemperature());
                 MQTTManager.publishToTopic(MQTTManager.getMqttTopic(Constants.MQTT_SET), CommonUtility.toJsonString(stateDto));
             } else {
-                java.awt.Color[] leds = new java.awt.Color[1];
                 try {
-                    leds[0] = new java.awt.Color(0, 0, 0);
                     FireflyLuciferin.config.setBrightness(0);
-                    FireflyLuciferin.sendColorsViaUSB(leds);
+                    FireflyLuciferin.sendColorsViaUSB(LEDFrame.solid(1, 0, 0, 0));
+                    SerialWriter.flush(Constants.SERIAL_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
                 } catch (IOException e) {
                     log.error(e.getMessage());
                 }
@@ -24,22 +24,41 @@ package org.dpsoftware.gui.elements;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
- *  A class that map a device running Glow Worm Luciferin firmware
+ *  A class that map a device running Glow Worm Luciferin firmware.
+ *  Values are stored in plain fields, network threads can read and write them at any time.
+ *  JavaFX properties are bound to the devices table, they are copied from the fields by syncProperties()
+ *  on the JavaFX thread only.
  */
 public class GlowWormDevice {
 
-    private final SimpleStringProperty deviceName = new SimpleStringProperty("");
-    private final SimpleStringProperty deviceIP = new SimpleStringProperty("");
-    private final SimpleStringProperty deviceVersion = new SimpleStringProperty("");
-    private final SimpleStringProperty deviceBoard = new SimpleStringProperty("");
-    private final SimpleStringProperty mac = new SimpleStringProperty("");
-    private final SimpleStringProperty gpio = new SimpleStringProperty("");
-    private final SimpleStringProperty numberOfLEDSconnected = new SimpleStringProperty("");
-    private final SimpleStringProperty lastSeen = new SimpleStringProperty("");
-    private final SimpleStringProperty firmwareType = new SimpleStringProperty("");
-    private final SimpleStringProperty baudRate = new SimpleStringProperty("");
-    private final SimpleStringProperty mqttTopic = new SimpleStringProperty("");
+    private volatile String deviceName;
+    private volatile String deviceIP;
+    private volatile String deviceVersion;
+    private volatile String deviceBoard;
+    private volatile String mac;
+    private volatile String gpio;
+    private volatile String numberOfLEDSconnected;
+    private volatile String lastSeen;
+    private volatile String firmwareType;
+    private volatile String baudRate;
+    private volatile String mqttTopic;
+    // True when a field changed and the properties have not been synced yet
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    private final SimpleStringProperty deviceNameProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty deviceIPProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty deviceVersionProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty deviceBoardProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty macProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty gpioProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty numberOfLEDSconnectedProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty lastSeenProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty firmwareTypeProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty baudRateProperty = new SimpleStringProperty("");
+    private final SimpleStringProperty mqttTopicProperty = new SimpleStringProperty("");
 
     public GlowWormDevice() {
         this("", "", "", "", "", "", "", "",
@@ -60,138 +79,185 @@ public class GlowWormDevice {
         setFirmwareType(firmwareType);
         setBaudRate(baudRate);
         setMqttTopic(mqttTopic);
+        // Not visible to the JavaFX thread yet, properties can be initialized here
+        syncProperties();
+        changed.set(false);
     }
 
     public String getDeviceName() {
-        return deviceName.get();
+        return deviceName;
     }
 
     public void setDeviceName(String deviceNameStr) {
-        deviceName.set(deviceNameStr);
+        deviceName = deviceNameStr;
+        changed.set(true);
     }
 
     public StringProperty deviceNameProperty() {
-        return deviceName;
+        return deviceNameProperty;
     }
 
     public String getDeviceIP() {
-        return deviceIP.get();
+        return deviceIP;
     }
 
     public void setDeviceIP(String deviceIPStr) {
-        deviceIP.set(deviceIPStr);
+        deviceIP = deviceIPStr;
+        changed.set(true);
     }
 
     public StringProperty deviceIPProperty() {
-        return deviceIP;
+        return deviceIPProperty;
     }
 
     public String getDeviceVersion() {
-        return deviceVersion.get();
+        return deviceVersion;
     }
 
     public void setDeviceVersion(String deviceVersionStr) {
-        deviceVersion.set(deviceVersionStr);
+        deviceVersion = deviceVersionStr;
+        changed.set(true);
     }
 
     public StringProperty deviceVersionProperty() {
-        return deviceVersion;
+        return deviceVersionProperty;
     }
 
     public String getDeviceBoard() {
-        return deviceBoard.get();
+        return deviceBoard;
     }
 
     public void setDeviceBoard(String deviceBoardStr) {
-        deviceBoard.set(deviceBoardStr);
+        deviceBoard = deviceBoardStr;
+        changed.set(true);
     }
 
     public StringProperty deviceBoardProperty() {
-        return deviceBoard;
+        return deviceBoardProperty;
     }
 
     public String getMac() {
-        return mac.get();
+        return mac;
     }
 
     public void setMac(String macStr) {
-        mac.set(macStr);
+        mac = macStr;
+        changed.set(true);
     }
 
     public StringProperty macProperty() {
-        return mac;
+        return macProperty;
     }
 
     public String getGpio() {
-        return gpio.get();
+        return gpio;
     }
 
     public void setGpio(String gpioStr) {
-        gpio.set(gpioStr);
+        gpio = gpioStr;
+        changed.set(true);
     }
 
     public StringProperty gpioProperty() {
-        return gpio;
+        return gpioProperty;
     }
 
     public String getNumberOfLEDSconnected() {
-        return numberOfLEDSconnected.get();
+        return numberOfLEDSconnected;
     }
 
     public void setNumberOfLEDSconnected(String numberOfLEDSconnectedStr) {
-        numberOfLEDSconnected.set(numberOfLEDSconnectedStr);
+        numberOfLEDSconnected = numberOfLEDSconnectedStr;
+        changed.set(true);
     }
 
     public StringProperty numberOfLEDSconnectedProperty() {
-        return numberOfLEDSconnected;
+        return numberOfLEDSconnectedProperty;
     }
 
     public String getLastSeen() {
-        return lastSeen.get();
+        return lastSeen;
     }
 
     public void setLastSeen(String lastSeenStr) {
-        lastSeen.set(lastSeenStr);
+        lastSeen = lastSeenStr;
+        changed.set(true);
     }
 
     public StringProperty lastSeenProperty() {
-        return lastSeen;
+        return lastSeenProperty;
     }
 
     public String getFirmwareType() {
-        return firmwareType.get();
+        return firmwareType;
     }
 
     public void setFirmwareType(String firmwareTypeStr) {
-        firmwareType.set(firmwareTypeStr);
+        firmwareType = firmwareTypeStr;
+        changed.set(true);
     }
 
     public StringProperty firmwareTypeProperty() {
-        return firmwareType;
+        return firmwareTypeProperty;
     }
 
     public String getBaudRate() {
-        return baudRate.get();
+        return baudRate;
     }
 
     public void setBaudRate(String baudRateStr) {
-        baudRate.set(baudRateStr);
+        baudRate = baudRateStr;
+        changed.set(true);
     }
 
     public StringProperty baudRateProperty() {
-        return baudRate;
+        return baudRateProperty;
     }
 
     public String getMqttTopic() {
-        return mqttTopic.get();
+        return mqttTopic;
     }
 
     public void setMqttTopic(String mqttTopicStr) {
-        mqttTopic.set(mqttTopicStr);
+        mqttTopic = mqttTopicStr;
+        changed.set(true);
     }
 
     public StringProperty mqttTopicProperty() {
-        return mqttTopic;
+        return mqttTopicProperty;
+    }
+
+    /**
+     * Check if a field changed since the last sync
+     * @return true if the properties must be synced
+     */
+    public boolean hasChanged() {
+        return changed.get();
+    }
+
+    /**
+     * Check if a field changed since the last sync and clear the flag
+     * @return true if the properties must be synced
+     */
+    public boolean takeChanged() {
+        return changed.getAndSet(false);
+    }
+
+    /**
+     * Copy the fields into the JavaFX properties, call it on the JavaFX thread only
+     */
+    public void syncProperties() {
+        deviceNameProperty.set(deviceName);
+        deviceIPProperty.set(deviceIP);
+        deviceVersionProperty.set(deviceVersion);
+        deviceBoardProperty.set(deviceBoard);
+        macProperty.set(mac);
+        gpioProperty.set(gpio);
+        numberOfLEDSconnectedProperty.set(numberOfLEDSconnected);
+        lastSeenProperty.set(lastSeen);
+        firmwareTypeProperty.set(firmwareType);
+        baudRateProperty.set(baudRate);
+        mqttTopicProperty.set(mqttTopic);
     }
 
 }
@@ -0,0 +1,263 @@
+/*
+  DeviceRegistry.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import javafx.application.Platform;
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.gui.controllers.DevicesTabController;
+import org.dpsoftware.gui.elements.GlowWormDevice;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thread safe registry of the Glow Worm Luciferin devices, indexed by device name and by MAC.
+ * Network threads (MQTT callbacks, serial events, message client) read and update the registry without locking,
+ * the devices table is a view of the registry that is updated on the JavaFX thread at most once every
+ * DEVICE_TABLE_SYNC_INTERVAL milliseconds, no matter how many devices are reporting.
+ * Device values (last seen, LED number, GPIO...) are written on plain fields by the network threads,
+ * the JavaFX properties bound to the table are copied from those fields by the same sync.
+ */
+@Slf4j
+public class DeviceRegistry {
+
+    // Devices in the order they have been discovered
+    private static final List<GlowWormDevice> devices = new CopyOnWriteArrayList<>();
+    private static final Map<String, GlowWormDevice> devicesByName = new ConcurrentHashMap<>();
+    // Serial and wireless device of the same microcontroller share the MAC
+    private static final Map<String, List<GlowWormDevice>> devicesByMac = new ConcurrentHashMap<>();
+    private static final AtomicBoolean tableDirty = new AtomicBoolean();
+    private static ScheduledFuture<?> syncTask;
+
+    /**
+     * Find a device by name
+     * @param deviceName device name
+     * @return device or null if there is no device with that name
+     */
+    public static GlowWormDevice findByName(String deviceName) {
+
+        return deviceName == null ? null : devicesByName.get(deviceName);
+
+    }
+
+    /**
+     * Find the devices with the given MAC
+     * @param mac device MAC
+     * @return devices, empty if there is no device with that MAC
+     */
+    public static List<GlowWormDevice> findByMac(String mac) {
+
+        List<GlowWormDevice> devicesWithMac = mac == null ? null : devicesByMac.get(mac);
+        return devicesWithMac == null ? Collections.emptyList() : devicesWithMac;
+
+    }
+
+    /**
+     * First device discovered
+     * @return device or null if the registry is empty
+     */
+    public static GlowWormDevice getFirst() {
+
+        Iterator<GlowWormDevice> iterator = devices.iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+
+    }
+
+    /**
+     * Snapshot of the registered devices, it doesn't change when the registry changes
+     * @return devices in the order they have been discovered
+     */
+    public static List<GlowWormDevice> getDevices() {
+
+        return List.copyOf(devices);
+
+    }
+
+    /**
+     * Check if there is no device
+     * @return true if the registry is empty
+     */
+    public static boolean isEmpty() {
+
+        return devices.isEmpty();
+
+    }
+
+    /**
+     * Add a device, a device with the same name is replaced
+     * @param glowWormDevice device to add
+     */
+    public static synchronized void add(GlowWormDevice glowWormDevice) {
+
+        GlowWormDevice previous = devicesByName.put(glowWormDevice.getDeviceName(), glowWormDevice);
+        if (previous != null) {
+            unindexMac(previous, previous.getMac());
+            devices.set(devices.indexOf(previous), glowWormDevice);
+        } else {
+            devices.add(glowWormDevice);
+        }
+        indexMac(glowWormDevice);
+        tableChanged();
+
+    }
+
+    /**
+     * Remove a device
+     * @param glowWormDevice device to remove
+     */
+    public static synchronized void remove(GlowWormDevice glowWormDevice) {
+
+        if (devices.remove(glowWormDevice)) {
+            devicesByName.remove(glowWormDevice.getDeviceName(), glowWormDevice);
+            unindexMac(glowWormDevice, glowWormDevice.getMac());
+            tableChanged();
+        }
+
+    }
+
+    /**
+     * Remove many devices with a single table update
+     * @param devicesToRemove devices to remove
+     */
+    public static synchronized void removeAll(Collection<GlowWormDevice> devicesToRemove) {
+
+        devicesToRemove.forEach(DeviceRegistry::remove);
+
+    }
+
+    /**
+     * Replace every device, used when the device list is received from the main instance
+     * @param newDevices new devices
+     */
+    public static synchronized void replaceAll(Collection<GlowWormDevice> newDevices) {
+
+        devices.clear();
+        devicesByName.clear();
+        devicesByMac.clear();
+        newDevices.forEach(DeviceRegistry::add);
+        tableChanged();
+
+    }
+
+    /**
+     * Change the MAC of a device keeping the MAC index up to date
+     * @param glowWormDevice device to update
+     * @param mac            new MAC
+     */
+    public static synchronized void setMac(GlowWormDevice glowWormDevice, String mac) {
+
+        if (!Objects.equals(glowWormDevice.getMac(), mac)) {
+            boolean registered = devicesByName.get(glowWormDevice.getDeviceName()) == glowWormDevice;
+            if (registered) {
+                unindexMac(glowWormDevice, glowWormDevice.getMac());
+            }
+            glowWormDevice.setMac(mac);
+            if (registered) {
+                indexMac(glowWormDevice);
+            }
+        }
+
+    }
+
+    /**
+     * Add a device to the MAC index, lists are copied on write so readers never lock
+     * @param glowWormDevice device to index
+     */
+    private static void indexMac(GlowWormDevice glowWormDevice) {
+
+        String mac = glowWormDevice.getMac();
+        if (mac != null) {
+            List<GlowWormDevice> devicesWithMac = new ArrayList<>(findByMac(mac));
+            devicesWithMac.add(glowWormDevice);
+            devicesByMac.put(mac, List.copyOf(devicesWithMac));
+        }
+
+    }
+
+    /**
+     * Remove a device from the MAC index
+     * @param glowWormDevice device to remove
+     * @param mac            MAC used when the device has been indexed
+     */
+    private static void unindexMac(GlowWormDevice glowWormDevice, String mac) {
+
+        if (mac != null) {
+            List<GlowWormDevice> devicesWithMac = new ArrayList<>(findByMac(mac));
+            devicesWithMac.remove(glowWormDevice);
+            if (devicesWithMac.isEmpty()) {
+                devicesByMac.remove(mac);
+            } else {
+                devicesByMac.put(mac, List.copyOf(devicesWithMac));
+            }
+        }
+
+    }
+
+    /**
+     * Mark the table as changed, the sync task is started on the first change
+     */
+    private static void tableChanged() {
+
+        tableDirty.set(true);
+        if (syncTask == null) {
+            syncTask = SchedulerManager.scheduleAtFixedRate(DeviceRegistry::syncTable, 0,
+                    Constants.DEVICE_TABLE_SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
+    /**
+     * Push the registry and the device values to the devices table on the JavaFX thread,
+     * only if something changed since the last push
+     */
+    private static void syncTable() {
+
+        boolean structureChanged = tableDirty.getAndSet(false);
+        if (structureChanged || devices.stream().anyMatch(GlowWormDevice::hasChanged)) {
+            List<GlowWormDevice> snapshot = getDevices();
+            try {
+                Platform.runLater(() -> {
+                    if (structureChanged) {
+                        DevicesTabController.deviceTableData.setAll(snapshot);
+                    }
+                    snapshot.forEach(glowWormDevice -> {
+                        if (glowWormDevice.takeChanged()) {
+                            glowWormDevice.syncProperties();
+                        }
+                    });
+                });
+            } catch (IllegalStateException e) {
+                // JavaFX toolkit not started yet, retry on the next run, device values are still marked as changed
+                if (structureChanged) {
+                    tableDirty.set(true);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+  FramerateController.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed loop capture framerate controller.
+ * Every second the target framerate is adjusted using the framerate measured on the device and the serial throughput,
+ * it backs off when the device falls behind and recovers step by step when it catches up.
+ * Producers ask for a capture slot before grabbing a frame, frames over the target are never captured.
+ */
+@Slf4j
+public class FramerateController {
+
+    private static volatile int targetFramerate = Constants.MAX_FRAMERATE;
+    private static volatile long frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Constants.MAX_FRAMERATE;
+    private static final AtomicLong nextFrameNanos = new AtomicLong();
+    // Serial writes, written by the consumer and read by the controller
+    private static volatile int serialFrameBytes;
+    private static volatile long serialWriteNanos;
+    private static ScheduledFuture<?> controllerTask;
+
+    /**
+     * Start the controller, it runs once per second
+     */
+    public static synchronized void start() {
+
+        if (controllerTask == null) {
+            controllerTask = SchedulerManager.scheduleAtFixedRate(FramerateController::adjust, 1, 1, TimeUnit.SECONDS);
+        }
+
+    }
+
+    /**
+     * Ask for a capture slot, producers capture a frame only if a slot is available
+     * @return true if the frame can be captured
+     */
+    public static boolean tryAcquireFrame() {
+
+        long now = System.nanoTime();
+        long next = nextFrameNanos.get();
+        if (now - next < 0) {
+            return false;
+        }
+        // A late producer doesn't get a burst of slots, at most one frame is recovered
+        long interval = frameIntervalNanos;
+        return nextFrameNanos.compareAndSet(next, Math.max(next, now - interval) + interval);
+
+    }
+
+    /**
+     * Record a frame written to the serial port
+     * @param frameBytes bytes written
+     * @param nanos      time spent writing the frame
+     */
+    public static void recordSerialWrite(int frameBytes, long nanos) {
+
+        serialFrameBytes = frameBytes;
+        // Exponential moving average, a single slow write doesn't move the target too much
+        serialWriteNanos += (nanos - serialWriteNanos) >> 3;
+
+    }
+
+    /**
+     * Adjust the target framerate using the last measures
+     */
+    static void adjust() {
+
+        int ceiling = getDesiredFramerate();
+        int target;
+        if (!FireflyLuciferin.config.isFramerateController()) {
+            target = ceiling;
+        } else {
+            int bound = Math.min(ceiling, getSerialFramerate());
+            float deviceFramerate = MetricsRegistry.FPS_GW_CONSUMER.get();
+            if (deviceFramerate > 0 && deviceFramerate < targetFramerate - Constants.BENCHMARK_ERROR_MARGIN) {
+                // Device is behind, capture just a bit more than what it consumes to notice when it catches up
+                target = (int) deviceFramerate + Constants.FRAMERATE_CONTROLLER_HEADROOM;
+            } else {
+                target = targetFramerate + Constants.FRAMERATE_CONTROLLER_STEP;
+            }
+            target = Math.max(Constants.FRAMERATE_CONTROLLER_MIN, Math.min(bound, target));
+        }
+        if (target != targetFramerate) {
+            targetFramerate = target;
+            frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / target;
+            CommonUtility.conditionedLog(FramerateController.class.getName(), "Capture framerate target: " + target + " FPS");
+        }
+
+    }
+
+    /**
+     * Max framerate the serial port can carry, using the baud rate and the measured write time
+     * @return framerate, MAX_FRAMERATE if there are no serial writes
+     */
+    static int getSerialFramerate() {
+
+        int frameBytes = serialFrameBytes;
+        if (frameBytes == 0 || (FireflyLuciferin.config.isMqttEnable() && FireflyLuciferin.config.isMqttStream())) {
+            return Constants.MAX_FRAMERATE;
+        }
+        long framerate = Constants.MAX_FRAMERATE;
+        try {
+            // 8N1, ten bits on the wire for every byte
+            framerate = Math.min(framerate, (Long.parseLong(FireflyLuciferin.config.getBaudRate()) / 10) / frameBytes);
+        } catch (NumberFormatException e) {
+            log.error(e.getMessage());
+        }
+        long writeNanos = serialWriteNanos;
+        if (writeNanos > 0) {
+            framerate = Math.min(framerate, TimeUnit.SECONDS.toNanos(1) / writeNanos);
+        }
+        return (int) framerate;
+
+    }
+
+    /**
+     * Framerate requested by the user, MAX_FRAMERATE when unlocked
+     * @return framerate
+     */
+    static int getDesiredFramerate() {
+
+        if (Constants.UNLOCKED.equals(FireflyLuciferin.config.getDesiredFramerate())) {
+            return Constants.MAX_FRAMERATE;
+        }
+        try {
+            return Integer.parseInt(FireflyLuciferin.config.getDesiredFramerate());
+        } catch (NumberFormatException e) {
+            return Constants.MAX_FRAMERATE;
+        }
+
+    }
+
+    /**
+     * Current target framerate
+     * @return framerate
+     */
+    public static int getTargetFramerate() {
+
+        return targetFramerate;
+
+    }
+
+}
@@ -21,31 +21,39 @@
 */
 package org.dpsoftware.managers;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import javafx.scene.control.Alert;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.JavaFXStarter;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Constants;
-import org.dpsoftware.gui.controllers.DevicesTabController;
+import org.dpsoftware.grabber.ColorCorrection;
 import org.dpsoftware.gui.GUIManager;
 import org.dpsoftware.gui.elements.GlowWormDevice;
 import org.dpsoftware.managers.dto.ColorDto;
+import org.dpsoftware.managers.dto.FpsDto;
 import org.dpsoftware.managers.dto.GammaDto;
 import org.dpsoftware.managers.dto.StateDto;
 import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
+import java.io.IOException;
 import java.util.Date;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 
 /**
@@ -55,9 +63,24 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class MQTTManager implements MqttCallback {
 
     public static MqttClient client;
+    // Stream client, frames are published without waiting for the broker
+    static MqttAsyncClient streamClient;
+    // Shared, thread safe JSON readers
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader GAMMA_READER = MAPPER.readerFor(GammaDto.class);
+    private static final ObjectReader FPS_READER = MAPPER.readerFor(FpsDto.class);
+    // Topics resolved from the config, rebuilt only when the base topic changes
+    private static final Map<String, String> topics = new ConcurrentHashMap<>();
+    private static volatile String topicsBase;
+    private static volatile String streamTopic;
+    // Subscribed topics and their handler, resolved at connect time
+    private volatile Map<String, MessageHandler> topicHandlers = Map.of();
+    private static final AtomicInteger streamInFlight = new AtomicInteger();
     boolean connected = false;
     String mqttDeviceName;
     Date lastActivity;
+    // Reconnect task, only one is running no matter how many times the connection is lost
+    private volatile ScheduledFuture<?> reconnectTask;
 
 
     /**
@@ -110,6 +133,16 @@ public class MQTTManager implements MqttCallback {
         }
         client.connect(connOpts);
         client.setCallback(this);
+        if (FireflyLuciferin.config.isMqttStream() && streamClient == null) {
+            try {
+                streamClient = new MqttAsyncClient(FireflyLuciferin.config.getMqttServer(), mqttDeviceName + Constants.MQTT_STREAM_CLIENT_SUFFIX, new MemoryPersistence());
+                streamClient.connect(connOpts);
+            } catch (MqttException e) {
+                // Stream falls back to the blocking client
+                streamClient = null;
+                log.error(e.getMessage());
+            }
+        }
         if (firstConnection) {
             turnOnLEDs();
             GammaDto gammaDto = new GammaDto();
@@ -134,8 +167,12 @@ public class MQTTManager implements MqttCallback {
             message.setPayload(msg.getBytes());
             message.setRetained(false);
             try {
+                long publishStart = System.nanoTime();
                 client.publish(topic, message);
+                MetricsRegistry.MQTT_PUBLISH.record(System.nanoTime() - publishStart);
+                MetricsRegistry.MQTT_MESSAGES.increment();
             } catch (MqttException e) {
+                MetricsRegistry.MQTT_ERRORS.increment();
                 log.error(Constants.MQTT_CANT_SEND);
             }
         }
@@ -148,15 +185,121 @@ public class MQTTManager implements MqttCallback {
      */
     public static void stream(String msg) {
 
-        try {
-            // If multi display change stream topic
-            if (FireflyLuciferin.config.getMultiMonitor() > 1 && !CommonUtility.isSingleDeviceMultiScreen()) {
-                client.publish(getMqttTopic(Constants.MQTT_SET) + Constants.MQTT_STREAM_TOPIC + JavaFXStarter.whoAmI, msg.getBytes(), 0, false);
-            } else {
-                client.publish(getMqttTopic(Constants.MQTT_SET) + Constants.MQTT_STREAM_TOPIC, msg.getBytes(), 0, false);
+        stream(msg.getBytes(), null);
+
+    }
+
+    /**
+     * Stream a payload to the stream topic
+     * @param payload    text or binary stream payload, it must not be modified until onComplete runs
+     * @param onComplete called when the payload is no longer used, with true if the broker acknowledged it, can be null
+     * @return true if the message has been published
+     */
+    public static boolean stream(byte[] payload, Consumer<Boolean> onComplete) {
+
+        return stream(new byte[][] {payload}, 1, onComplete);
+
+    }
+
+    /**
+     * Stream a frame split in one or more payloads to the stream topic.
+     * Payloads are published back to back without waiting for the broker, at most MQTT_STREAM_WINDOW frames are in flight,
+     * when the window is full the whole frame is dropped, newer frames will follow.
+     * @param payloads   text or binary stream payloads, they must not be modified until onComplete runs
+     * @param count      number of payloads to publish
+     * @param onComplete called once when every payload is no longer used, with true if the broker acknowledged every payload,
+     *                   false if one of them failed or the frame has been dropped, can be null
+     * @return true if every payload has been published
+     */
+    public static boolean stream(byte[][] payloads, int count, Consumer<Boolean> onComplete) {
+
+        String topic = getStreamTopic();
+        long publishStart = System.nanoTime();
+        if (streamClient == null || !streamClient.isConnected()) {
+            // Stream client not ready yet, blocking publish
+            boolean published = false;
+            try {
+                for (int i = 0; i < count; i++) {
+                    client.publish(topic, payloads[i], 0, false);
+                    MetricsRegistry.MQTT_MESSAGES.increment();
+                }
+                MetricsRegistry.MQTT_STREAM_PUBLISH.record(System.nanoTime() - publishStart);
+                published = true;
+                return true;
+            } catch (MqttException e) {
+                MetricsRegistry.MQTT_ERRORS.increment();
+                log.error(Constants.MQTT_CANT_SEND);
+                return false;
+            } finally {
+                complete(onComplete, published);
+            }
+        }
+        if (streamInFlight.incrementAndGet() > Constants.MQTT_STREAM_WINDOW) {
+            streamInFlight.decrementAndGet();
+            MetricsRegistry.MQTT_STREAM_DROPPED.increment();
+            complete(onComplete, false);
+            return false;
+        }
+        // The frame leaves the window when the last of its payloads completes
+        AtomicInteger pending = new AtomicInteger(count);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        Runnable payloadDone = () -> {
+            if (pending.decrementAndGet() == 0) {
+                streamInFlight.decrementAndGet();
+                MetricsRegistry.MQTT_STREAM_PUBLISH.record(System.nanoTime() - publishStart);
+                complete(onComplete, !failed.get());
             }
-        } catch (MqttException e) {
-            log.error(Constants.MQTT_CANT_SEND);
+        };
+        IMqttActionListener listener = new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken asyncActionToken) {
+                MetricsRegistry.MQTT_MESSAGES.increment();
+                payloadDone.run();
+            }
+            @Override
+            public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                MetricsRegistry.MQTT_ERRORS.increment();
+                failed.set(true);
+                payloadDone.run();
+            }
+        };
+        for (int i = 0; i < count; i++) {
+            try {
+                streamClient.publish(topic, payloads[i], 0, false, null, listener);
+            } catch (MqttException e) {
+                MetricsRegistry.MQTT_ERRORS.increment();
+                log.error(Constants.MQTT_CANT_SEND);
+                // Payloads not published yet will never complete
+                failed.set(true);
+                for (int j = i; j < count; j++) {
+                    payloadDone.run();
+                }
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    /**
+     * True if the stream window has room for a new frame, used to drop a frame before encoding it
+     * @return true if a new frame can be streamed
+     */
+    public static boolean isStreamWindowAvailable() {
+
+        return streamInFlight.get() < Constants.MQTT_STREAM_WINDOW;
+
+    }
+
+    /**
+     * Run the completion callback of a streamed payload
+     * @param onComplete callback, can be null
+     * @param success    true if the broker acknowledged every payload
+     */
+    private static void complete(Consumer<Boolean> onComplete, boolean success) {
+
+        if (onComplete != null) {
+            onComplete.accept(success);
         }
 
     }
@@ -170,9 +313,14 @@ public class MQTTManager implements MqttCallback {
 
         log.error("Connection Lost");
         connected = false;
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
-        scheduledExecutorService.scheduleAtFixedRate(() -> {
-            if (!connected) {
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+        }
+        reconnectTask = SchedulerManager.scheduleBlockingAtFixedRate(() -> {
+            if (connected) {
+                // Connection is back, stop retrying
+                reconnectTask.cancel(false);
+            } else {
                 try {
                     // if long disconnection, reconfigure microcontroller
                     long duration = new Date().getTime() - lastActivity.getTime();
@@ -193,137 +341,191 @@ public class MQTTManager implements MqttCallback {
     }
 
     /**
-     * Subscribe to topics
+     * Subscribe to topics, topics are resolved once here and mapped to their handler
      * @throws MqttException can't subscribe
      */
     void subscribeToTopics() throws MqttException {
 
-        client.subscribe(getMqttTopic(Constants.MQTT_SET));
-        client.subscribe(getMqttTopic(Constants.MQTT_EMPTY));
-        client.subscribe(getMqttTopic(Constants.MQTT_UPDATE_RES));
-        client.subscribe(getMqttTopic(Constants.MQTT_GAMMA));
-        client.subscribe(getMqttTopic(Constants.MQTT_FPS));
+        Map<String, MessageHandler> handlers = new HashMap<>();
+        handlers.put(getMqttTopic(Constants.MQTT_SET), this::handleSet);
+        handlers.put(getMqttTopic(Constants.MQTT_EMPTY), this::handleState);
+        handlers.put(getMqttTopic(Constants.MQTT_UPDATE_RES), this::handleUpdateResult);
+        handlers.put(getMqttTopic(Constants.MQTT_GAMMA), this::handleGamma);
+        handlers.put(getMqttTopic(Constants.MQTT_FPS), this::handleFps);
+        topicHandlers = handlers;
+        for (String topic : handlers.keySet()) {
+            client.subscribe(topic);
+        }
 
     }
 
     /**
-     * Subscribe to the topic to START/STOP screen grabbing
+     * Dispatch the message to the handler of its topic
      * @param topic   MQTT topic where to publish/subscribe
      * @param message MQTT message to read
+     * @throws IOException can't parse the message
      */
     @Override
-    public void messageArrived(String topic, MqttMessage message) throws JsonProcessingException {
+    public void messageArrived(String topic, MqttMessage message) throws IOException {
 
         lastActivity = new Date();
-        if (topic.equals(getMqttTopic(Constants.MQTT_EMPTY))) {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode mqttmsg = mapper.readTree(new String(message.getPayload()));
-            if (mqttmsg.get(Constants.STATE) != null) {
-                if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.STOP.name())) {
-                    FireflyLuciferin.guiManager.stopCapturingThreads(false);
-                } else if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.PLAY.name())) {
-                    FireflyLuciferin.guiManager.startCapturingThreads();
-                } else {
-                    if (mqttmsg.get(Constants.STATE).asText().equals(Constants.ON) && mqttmsg.get(Constants.EFFECT).asText().equals(Constants.SOLID)) {
-                        FireflyLuciferin.config.setToggleLed(true);
-                        String brightnessToSet;
-                        if (mqttmsg.get(Constants.COLOR) != null) {
-                            if (FireflyLuciferin.nightMode) {
-                                brightnessToSet = FireflyLuciferin.config.getBrightness() + "";
-                            } else {
-                                brightnessToSet = mqttmsg.get(Constants.MQTT_BRIGHTNESS) + "";
-                            }
-                            FireflyLuciferin.config.setColorChooser(mqttmsg.get(Constants.COLOR).get("r") + "," + mqttmsg.get(Constants.COLOR).get("g") + ","
-                                    + mqttmsg.get(Constants.COLOR).get("b") + "," + brightnessToSet);
+        MessageHandler handler = topicHandlers.get(topic);
+        if (handler != null) {
+            handler.handle(message);
+        }
+
+    }
+
+    /**
+     * Handle a message on the state topic, device state and device info
+     * @param message MQTT message to read
+     * @throws IOException can't parse the message
+     */
+    private void handleState(MqttMessage message) throws IOException {
+
+        JsonNode mqttmsg = MAPPER.readTree(message.getPayload());
+        if (mqttmsg.get(Constants.STATE) != null) {
+            if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.STOP.name())) {
+                FireflyLuciferin.guiManager.stopCapturingThreads(false);
+            } else if (mqttmsg.get(Constants.START_STOP_INSTANCES) != null && mqttmsg.get(Constants.START_STOP_INSTANCES).asText().equals(Constants.PlayerStatus.PLAY.name())) {
+                FireflyLuciferin.guiManager.startCapturingThreads();
+            } else {
+                if (mqttmsg.get(Constants.STATE).asText().equals(Constants.ON) && mqttmsg.get(Constants.EFFECT).asText().equals(Constants.SOLID)) {
+                    FireflyLuciferin.config.setToggleLed(true);
+                    String brightnessToSet;
+                    if (mqttmsg.get(Constants.COLOR) != null) {
+                        if (FireflyLuciferin.nightMode) {
+                            brightnessToSet = FireflyLuciferin.config.getBrightness() + "";
+                        } else {
+                            brightnessToSet = mqttmsg.get(Constants.MQTT_BRIGHTNESS) + "";
                         }
-                    }
-                    if (mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE) != null) {
-                        String macToUpdate = mqttmsg.get(Constants.MAC).asText();
-                        DevicesTabController.deviceTableData.forEach(glowWormDevice -> {
-                            if (glowWormDevice.getMac().equals(macToUpdate)) {
-                                if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
-                                    FireflyLuciferin.FPS_GW_CONSUMER = Float.parseFloat(mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE).asText());
-                                }
-                            }
-                        });
+                        FireflyLuciferin.config.setColorChooser(mqttmsg.get(Constants.COLOR).get("r") + "," + mqttmsg.get(Constants.COLOR).get("g") + ","
+                                + mqttmsg.get(Constants.COLOR).get("b") + "," + brightnessToSet);
                     }
                 }
-            }
-            // Skip retained message, we want fresh data here
-            if (!message.isRetained()) {
-                if (mqttmsg.get(Constants.MQTT_DEVICE_NAME) != null) {
-                    String freshDeviceName = mqttmsg.get(Constants.MQTT_DEVICE_NAME).textValue();
-                    if (DevicesTabController.deviceTableData.isEmpty()) {
-                        addDevice(mqttmsg);
-                    } else {
-                        AtomicBoolean isDevicePresent = new AtomicBoolean(false);
-                        DevicesTabController.deviceTableData.forEach(glowWormDevice -> {
-                            if (glowWormDevice.getDeviceName().equals(freshDeviceName)) {
-                                isDevicePresent.set(true);
-                                glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
-                                if (mqttmsg.get(Constants.GPIO) != null) {
-                                    glowWormDevice.setGpio(mqttmsg.get(Constants.GPIO).textValue());
-                                }
-                                if (mqttmsg.get(Constants.DEVICE_VER) != null) {
-                                    glowWormDevice.setDeviceVersion(mqttmsg.get(Constants.DEVICE_VER).textValue());
-                                }
-                            }
-                        });
-                        if (!isDevicePresent.get()) {
-                            addDevice(mqttmsg);
+                if (mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE) != null) {
+                    String macToUpdate = mqttmsg.get(Constants.MAC).asText();
+                    DeviceRegistry.findByMac(macToUpdate).forEach(glowWormDevice -> {
+                        if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
+                            MetricsRegistry.FPS_GW_CONSUMER.set(Float.parseFloat(mqttmsg.get(Constants.MQTT_TOPIC_FRAMERATE).asText()));
                         }
+                    });
+                }
+            }
+        }
+        // Skip retained message, we want fresh data here
+        if (!message.isRetained()) {
+            if (mqttmsg.get(Constants.MQTT_DEVICE_NAME) != null) {
+                String freshDeviceName = mqttmsg.get(Constants.MQTT_DEVICE_NAME).textValue();
+                GlowWormDevice glowWormDevice = DeviceRegistry.findByName(freshDeviceName);
+                if (glowWormDevice == null) {
+                    addDevice(mqttmsg);
+                } else {
+                    glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
+                    if (mqttmsg.get(Constants.GPIO) != null) {
+                        glowWormDevice.setGpio(mqttmsg.get(Constants.GPIO).textValue());
                     }
-                    if (UpgradeManager.deviceNameForSerialDevice.isEmpty()) {
-                        GlowWormDevice mqttDeviceInUse = CommonUtility.getDeviceToUse();
-                        if (mqttDeviceInUse != null) {
-                            UpgradeManager.deviceNameForSerialDevice = mqttDeviceInUse.getDeviceName();
-                        }
+                    if (mqttmsg.get(Constants.DEVICE_VER) != null) {
+                        glowWormDevice.setDeviceVersion(mqttmsg.get(Constants.DEVICE_VER).textValue());
                     }
                 }
-            }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_UPDATE_RES))) {
-            // If a new firmware version is detected, restart the screen capture.
-            if (UpgradeManager.deviceNameForSerialDevice.equals(message.toString())) {
-                log.debug("Update successfull=" + message);
-                if (!CommonUtility.isSingleDeviceMultiScreen() || CommonUtility.isSingleDeviceMainInstance()) {
-                    javafx.application.Platform.runLater(() -> FireflyLuciferin.guiManager.showAlert(Constants.FIREFLY_LUCIFERIN,
-                            Constants.UPGRADE_SUCCESS, message + Constants.DEVICEUPGRADE_SUCCESS,
-                            Alert.AlertType.INFORMATION));
+                if (UpgradeManager.deviceNameForSerialDevice.isEmpty()) {
+                    GlowWormDevice mqttDeviceInUse = CommonUtility.getDeviceToUse();
+                    if (mqttDeviceInUse != null) {
+                        UpgradeManager.deviceNameForSerialDevice = mqttDeviceInUse.getDeviceName();
+                    }
                 }
-                CommonUtility.sleepSeconds(60);
-                FireflyLuciferin.guiManager.startCapturingThreads();
-            }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_SET))) {
-            if (message.toString().contains(Constants.MQTT_START)) {
-                FireflyLuciferin.guiManager.startCapturingThreads();
-            } else if (message.toString().contains(Constants.MQTT_STOP)) {
-                FireflyLuciferin.guiManager.pipelineManager.stopCapturePipeline();
-            }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_GAMMA))) {
-            ObjectMapper gammaMapper = new ObjectMapper();
-            JsonNode gammaObj = gammaMapper.readTree(new String(message.getPayload()));
-            if (gammaObj.get(Constants.MQTT_GAMMA) != null) {
-                FireflyLuciferin.config.setGamma(Double.parseDouble(gammaObj.get(Constants.MQTT_GAMMA).asText()));
             }
-        } else if (topic.equals(getMqttTopic(Constants.MQTT_FPS))) {
-            ObjectMapper fpsMapper = new ObjectMapper();
-            JsonNode fpsTopicMsg = fpsMapper.readTree(new String(message.getPayload()));
-            String macToUpdate = fpsTopicMsg.get(Constants.MAC).textValue();
-            if (fpsTopicMsg.get(Constants.MAC) != null) {
-                DevicesTabController.deviceTableData.forEach(glowWormDevice -> {
-                    if (glowWormDevice.getMac().equals(macToUpdate)) {
-                        glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
-                        glowWormDevice.setNumberOfLEDSconnected(fpsTopicMsg.get(Constants.NUMBER_OF_LEDS).textValue());
-                        if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
-                            FireflyLuciferin.FPS_GW_CONSUMER = Float.parseFloat(fpsTopicMsg.get(Constants.MQTT_TOPIC_FRAMERATE).asText());
-                        }
-                    }
-                });
+        }
+
+    }
+
+    /**
+     * Handle a message on the update result topic
+     * @param message MQTT message to read
+     */
+    private void handleUpdateResult(MqttMessage message) {
+
+        // If a new firmware version is detected, restart the screen capture.
+        if (UpgradeManager.deviceNameForSerialDevice.equals(message.toString())) {
+            log.debug("Update successfull=" + message);
+            if (!CommonUtility.isSingleDeviceMultiScreen() || CommonUtility.isSingleDeviceMainInstance()) {
+                javafx.application.Platform.runLater(() -> FireflyLuciferin.guiManager.showAlert(Constants.FIREFLY_LUCIFERIN,
+                        Constants.UPGRADE_SUCCESS, message + Constants.DEVICEUPGRADE_SUCCESS,
+                        Alert.AlertType.INFORMATION));
             }
+            CommonUtility.sleepSeconds(60);
+            FireflyLuciferin.guiManager.startCapturingThreads();
+        }
+
+    }
+
+    /**
+     * Handle a message on the set topic, START/STOP screen grabbing
+     * @param message MQTT message to read
+     */
+    private void handleSet(MqttMessage message) {
+
+        String msg = message.toString();
+        if (msg.contains(Constants.MQTT_START)) {
+            FireflyLuciferin.guiManager.startCapturingThreads();
+        } else if (msg.contains(Constants.MQTT_STOP)) {
+            FireflyLuciferin.guiManager.pipelineManager.stopCapturePipeline();
+        }
+
+    }
+
+    /**
+     * Handle a message on the gamma topic
+     * @param message MQTT message to read
+     * @throws IOException can't parse the message
+     */
+    private void handleGamma(MqttMessage message) throws IOException {
+
+        GammaDto gammaDto = GAMMA_READER.readValue(message.getPayload());
+        if (gammaDto.getGamma() != null) {
+            FireflyLuciferin.config.setGamma(gammaDto.getGamma());
+            ColorCorrection.rebuild(FireflyLuciferin.config.getGamma());
+        }
+
+    }
+
+    /**
+     * Handle a message on the FPS topic
+     * @param message MQTT message to read
+     * @throws IOException can't parse the message
+     */
+    private void handleFps(MqttMessage message) throws IOException {
+
+        FpsDto fpsDto = FPS_READER.readValue(message.getPayload());
+        String macToUpdate = fpsDto.getMAC();
+        if (macToUpdate != null) {
+            DeviceRegistry.findByMac(macToUpdate).forEach(glowWormDevice -> {
+                glowWormDevice.setLastSeen(FireflyLuciferin.formatter.format(new Date()));
+                glowWormDevice.setNumberOfLEDSconnected(fpsDto.getLednum());
+                if (glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()) || glowWormDevice.getDeviceIP().equals(FireflyLuciferin.config.getSerialPort())) {
+                    MetricsRegistry.FPS_GW_CONSUMER.set(Float.parseFloat(fpsDto.getFramerate()));
+                }
+            });
         }
 
     }
 
+    /**
+     * Handler of the messages received on a topic
+     */
+    @FunctionalInterface
+    private interface MessageHandler {
+
+        /**
+         * Handle a message
+         * @param message MQTT message to read
+         * @throws IOException can't parse the message
+         */
+        void handle(MqttMessage message) throws IOException;
+
+    }
+
     /**
      * Callback for MQTT message sent
      * @param token mqtt token
@@ -348,25 +550,23 @@ public class MQTTManager implements MqttCallback {
                 if (FireflyLuciferin.config.isMqttStream()) {
                     FireflyLuciferin.config.setSerialPort(actualObj.get(Constants.MQTT_DEVICE_NAME).textValue());
                 } else {
-                    if (DevicesTabController.deviceTableData != null && DevicesTabController.deviceTableData.size() > 0) {
-                        FireflyLuciferin.config.setSerialPort(DevicesTabController.deviceTableData.get(0).getDeviceIP());
+                    if (!DeviceRegistry.isEmpty()) {
+                        FireflyLuciferin.config.setSerialPort(DeviceRegistry.getFirst().getDeviceIP());
                     }
                 }
             }
-            if (DevicesTabController.deviceTableData != null) {
-                DevicesTabController.deviceTableData.add(new GlowWormDevice(actualObj.get(Constants.MQTT_DEVICE_NAME).textValue(),
-                        actualObj.get(Constants.STATE_IP).textValue(), actualObj.get(Constants.DEVICE_VER).textValue(),
-                        (actualObj.get(Constants.DEVICE_BOARD) == null ? Constants.DASH : actualObj.get(Constants.DEVICE_BOARD).textValue()),
-                        (actualObj.get(Constants.MAC) == null ? Constants.DASH : actualObj.get(Constants.MAC).textValue()),
-                        (actualObj.get(Constants.GPIO) == null ? Constants.DASH : actualObj.get(Constants.GPIO).textValue()),
-                        (actualObj.get(Constants.NUMBER_OF_LEDS) == null ? Constants.DASH : actualObj.get(Constants.NUMBER_OF_LEDS).textValue()),
-                        (FireflyLuciferin.formatter.format(new Date())),
-                        Constants.FirmwareType.FULL.name(),
-                        (((actualObj.get(Constants.BAUD_RATE) == null) || !validBaudRate) ? Constants.DASH :
-                                Constants.BaudRate.values()[Integer.parseInt(actualObj.get(Constants.BAUD_RATE).toString()) - 1].getBaudRate()),
-                        (actualObj.get(Constants.MQTT_TOPIC) == null ? FireflyLuciferin.config.isMqttEnable() ? Constants.MQTT_BASE_TOPIC : Constants.DASH
-                                : actualObj.get(Constants.MQTT_TOPIC).textValue())));
-            }
+            DeviceRegistry.add(new GlowWormDevice(actualObj.get(Constants.MQTT_DEVICE_NAME).textValue(),
+                    actualObj.get(Constants.STATE_IP).textValue(), actualObj.get(Constants.DEVICE_VER).textValue(),
+                    (actualObj.get(Constants.DEVICE_BOARD) == null ? Constants.DASH : actualObj.get(Constants.DEVICE_BOARD).textValue()),
+                    (actualObj.get(Constants.MAC) == null ? Constants.DASH : actualObj.get(Constants.MAC).textValue()),
+                    (actualObj.get(Constants.GPIO) == null ? Constants.DASH : actualObj.get(Constants.GPIO).textValue()),
+                    (actualObj.get(Constants.NUMBER_OF_LEDS) == null ? Constants.DASH : actualObj.get(Constants.NUMBER_OF_LEDS).textValue()),
+                    (FireflyLuciferin.formatter.format(new Date())),
+                    Constants.FirmwareType.FULL.name(),
+                    (((actualObj.get(Constants.BAUD_RATE) == null) || !validBaudRate) ? Constants.DASH :
+                            Constants.BaudRate.values()[Integer.parseInt(actualObj.get(Constants.BAUD_RATE).toString()) - 1].getBaudRate()),
+                    (actualObj.get(Constants.MQTT_TOPIC) == null ? FireflyLuciferin.config.isMqttEnable() ? Constants.MQTT_BASE_TOPIC : Constants.DASH
+                            : actualObj.get(Constants.MQTT_TOPIC).textValue())));
         } catch (Exception e) {
             log.error(e.getMessage());
         }
@@ -416,6 +616,51 @@ public class MQTTManager implements MqttCallback {
      */
     public static String getMqttTopic(String command) {
 
+        String baseTopic = FireflyLuciferin.config.getMqttTopic();
+        if (!Objects.equals(baseTopic, topicsBase)) {
+            topics.clear();
+            streamTopic = null;
+            topicsBase = baseTopic;
+        }
+        String topic = topics.get(command);
+        if (topic == null) {
+            topic = buildMqttTopic(command);
+            if (topic != null) {
+                topics.put(command, topic);
+            }
+        }
+        return topic;
+
+    }
+
+    /**
+     * Return the stream topic, built once
+     * @return MQTT stream topic
+     */
+    public static String getStreamTopic() {
+
+        String setTopic = getMqttTopic(Constants.MQTT_SET);
+        String topic = streamTopic;
+        if (topic == null) {
+            // If multi display change stream topic
+            if (FireflyLuciferin.config.getMultiMonitor() > 1 && !CommonUtility.isSingleDeviceMultiScreen()) {
+                topic = setTopic + Constants.MQTT_STREAM_TOPIC + JavaFXStarter.whoAmI;
+            } else {
+                topic = setTopic + Constants.MQTT_STREAM_TOPIC;
+            }
+            streamTopic = topic;
+        }
+        return topic;
+
+    }
+
+    /**
+     * Build an MQTT topic using the configuration file
+     * @param command MQTT command
+     * @return MQTT topic
+     */
+    private static String buildMqttTopic(String command) {
+
         String topic = null;
         String gwBaseTopic = Constants.MQTT_BASE_TOPIC;
         String fireflyBaseTopic = Constants.MQTT_FIREFLY_BASE_TOPIC;
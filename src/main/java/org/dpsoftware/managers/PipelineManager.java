@@ -24,6 +24,7 @@ package org.dpsoftware.managers;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.JavaFXStarter;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.audio.AudioLoopback;
 import org.dpsoftware.audio.AudioLoopbackNative;
 import org.dpsoftware.audio.AudioLoopbackSoftware;
@@ -33,13 +34,17 @@ import org.dpsoftware.config.Constants;
 import org.dpsoftware.gui.elements.GlowWormDevice;
 import org.dpsoftware.managers.dto.StateDto;
 import org.dpsoftware.managers.dto.UnsubscribeInstanceDto;
-import org.dpsoftware.network.MessageClient;
+import org.dpsoftware.output.MemoryOutputSink;
+import org.dpsoftware.output.MessageServerOutputSink;
+import org.dpsoftware.output.MqttOutputSink;
+import org.dpsoftware.output.OutputSink;
+import org.dpsoftware.output.SerialOutputSink;
+import org.dpsoftware.output.UdpOutputSink;
 import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
 
-import java.awt.*;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -49,7 +54,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 public class PipelineManager {
 
-    private ScheduledExecutorService scheduledExecutorService;
+    // Frames of multi screen single device instances go to the main instance instead of the queue
+    private static final MessageServerOutputSink messageServerSink = new MessageServerOutputSink();
+    // Task that waits for the device before running the pipeline
+    private ScheduledFuture<?> pipelineTask;
     UpgradeManager upgradeManager = new UpgradeManager();
     public static boolean pipelineStarting = false;
     public static boolean pipelineStopping = false;
@@ -65,7 +73,12 @@ public class PipelineManager {
         if (CommonUtility.isSingleDeviceMainInstance() || !CommonUtility.isSingleDeviceMultiScreen()) {
             initAudioCapture();
         }
-        if (MQTTManager.client != null) {
+        FireflyLuciferin.outputSink.close();
+        FireflyLuciferin.outputSink = createOutputSink();
+        if (FireflyLuciferin.config.isMemoryOutput()) {
+            // No device to wait for, frames are discarded after encoding
+            setRunning();
+        } else if (MQTTManager.client != null) {
             startMqttManagedPipeline();
         } else {
             if (!FireflyLuciferin.config.isMqttEnable()) {
@@ -75,6 +88,21 @@ public class PipelineManager {
 
     }
 
+    /**
+     * Choose the sink used by the consumer, based on the current config
+     * @return output sink
+     */
+    public static OutputSink createOutputSink() {
+
+        if (FireflyLuciferin.config.isMemoryOutput()) {
+            return new MemoryOutputSink();
+        } else if (FireflyLuciferin.config.isMqttEnable() && FireflyLuciferin.config.isMqttStream()) {
+            return FireflyLuciferin.config.isUdpStream() ? new UdpOutputSink() : new MqttOutputSink();
+        }
+        return new SerialOutputSink();
+
+    }
+
     /**
      * Initialize audio loopback, software or native based on the OS availability
      */
@@ -113,7 +141,6 @@ public class PipelineManager {
      */
     private void startSerialManagedPipeline() {
 
-        scheduledExecutorService = Executors.newScheduledThreadPool(1);
         Runnable framerateTask = () -> {
             // Waiting Device to Use
             GlowWormDevice glowWormDeviceSerial = CommonUtility.getDeviceToUse();
@@ -132,7 +159,7 @@ public class PipelineManager {
                 log.debug("Waiting device for my instance...");
             }
         };
-        scheduledExecutorService.scheduleAtFixedRate(framerateTask, 1, 1, TimeUnit.SECONDS);
+        pipelineTask = SchedulerManager.scheduleBlockingPipelineTask(framerateTask, 1, 1, TimeUnit.SECONDS);
 
     }
 
@@ -141,7 +168,6 @@ public class PipelineManager {
      */
     private void startMqttManagedPipeline() {
 
-        scheduledExecutorService = Executors.newScheduledThreadPool(1);
         AtomicInteger retryNumber = new AtomicInteger();
         Runnable framerateTask = () -> {
             // Waiting Device to Use
@@ -175,8 +201,8 @@ public class PipelineManager {
                         stateDto.setEffect(Constants.STATE_ON_GLOWWORM);
                         MQTTManager.publishToTopic(MQTTManager.getMqttTopic(Constants.MQTT_SET), CommonUtility.toJsonString(stateDto));
                     }
-                    if (FireflyLuciferin.FPS_GW_CONSUMER > 0 || !FireflyLuciferin.RUNNING) {
-                        scheduledExecutorService.shutdown();
+                    if (MetricsRegistry.FPS_GW_CONSUMER.get() > 0 || !FireflyLuciferin.RUNNING) {
+                        pipelineTask.cancel(false);
                     }
                 } else {
                     stopForFirmwareUpgrade(glowWormDeviceToUse);
@@ -185,7 +211,7 @@ public class PipelineManager {
                 log.debug("Waiting device for my instance...");
             }
         };
-        scheduledExecutorService.scheduleAtFixedRate(framerateTask, 1, 1, TimeUnit.SECONDS);
+        pipelineTask = SchedulerManager.scheduleBlockingPipelineTask(framerateTask, 1, 1, TimeUnit.SECONDS);
 
     }
 
@@ -215,7 +241,7 @@ public class PipelineManager {
         PipelineManager.pipelineStarting = false;
         PipelineManager.pipelineStopping = false;
         log.error(Constants.MIN_FIRMWARE_NOT_MATCH, glowWormDeviceToUse.getDeviceName(), glowWormDeviceToUse.getDeviceVersion());
-        scheduledExecutorService.shutdown();
+        pipelineTask.cancel(false);
         if (FireflyLuciferin.guiManager.getTrayIcon() != null) {
             FireflyLuciferin.guiManager.setTrayIconImage(Constants.PlayerStatus.GREY);
         }
@@ -229,9 +255,7 @@ public class PipelineManager {
 
         PipelineManager.pipelineStarting = false;
         PipelineManager.pipelineStopping = true;
-        if (scheduledExecutorService != null && !scheduledExecutorService.isShutdown()) {
-            scheduledExecutorService.shutdown();
-        }
+        SchedulerManager.cancelPipelineTasks();
         AudioLoopback audioLoopback = new AudioLoopback();
         audioLoopback.stopVolumeLevelMeter();
         if (FireflyLuciferin.guiManager.getTrayIcon() != null) {
@@ -244,10 +268,7 @@ public class PipelineManager {
                 || (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.CaptureMethod.AVFVIDEOSRC.name())))) {
             FireflyLuciferin.pipe.stop();
         }
-        FireflyLuciferin.FPS_PRODUCER_COUNTER = 0;
-        FireflyLuciferin.FPS_CONSUMER_COUNTER = 0;
-        FireflyLuciferin.FPS_CONSUMER = 0;
-        FireflyLuciferin.FPS_PRODUCER = 0;
+        MetricsRegistry.reset();
         FireflyLuciferin.RUNNING = false;
         AudioLoopback.RUNNING_AUDIO = false;
         FireflyLuciferin.config.setToggleLed(false);
@@ -321,21 +342,10 @@ public class PipelineManager {
      * Message offered to the queue is sent to the LED strip, if multi screen single instance, is sent via TCP Socket to the main instance
      * @param leds colors to be sent to the LED strip
      */
-    public static void offerToTheQueue(Color[] leds) {
+    public static void offerToTheQueue(LEDFrame leds) {
 
         if (CommonUtility.isSingleDeviceMultiScreen()) {
-            if (MessageClient.msgClient == null || MessageClient.msgClient.clientSocket == null) {
-                MessageClient.msgClient = new MessageClient();
-                if (CommonUtility.isSingleDeviceMultiScreen()) {
-                    MessageClient.msgClient.startConnection(Constants.MSG_SERVER_HOST, Constants.MSG_SERVER_PORT);
-                }
-            }
-            StringBuilder sb = new StringBuilder();
-            sb.append(JavaFXStarter.whoAmI).append(",");
-            for (Color color : leds) {
-                sb.append(color.getRGB()).append(",");
-            }
-            MessageClient.msgClient.sendMessage(sb.toString());
+            messageServerSink.send(leds);
         } else {
             FireflyLuciferin.sharedQueue.offer(leds);
         }
@@ -0,0 +1,246 @@
+/*
+  SchedulerManager.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.config.Constants;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single scheduling service for every periodic and one shot background task.
+ * Short tasks run on a small shared scheduler, long running loops (audio loopbacks, message server)
+ * and tasks that block on network or serial IO run on a cached pool that reclaims idle threads,
+ * a blocked task never delays the periodic jobs on the shared scheduler. Pipeline tasks are tracked and cancelled when the pipeline stops,
+ * so the number of threads stays flat no matter how many times the capture is started and stopped.
+ */
+@Slf4j
+public class SchedulerManager {
+
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+    private static final ExecutorService background = Executors.newCachedThreadPool(threadFactory("background"));
+    // Tasks bound to the capture pipeline, cancelled on pipeline stop
+    private static final Set<Future<?>> pipelineTasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Run a task periodically for the whole application lifetime
+     * @param task         task to run
+     * @param initialDelay delay before the first run
+     * @param period       period between runs
+     * @param unit         time unit
+     * @return future that can be used to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+
+        return scheduler.scheduleAtFixedRate(logExceptions(task), initialDelay, period, unit);
+
+    }
+
+    /**
+     * Run a task once
+     * @param task  task to run
+     * @param delay delay before running the task
+     * @param unit  time unit
+     * @return future that can be used to cancel the task
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+
+        return scheduler.schedule(logExceptions(task), delay, unit);
+
+    }
+
+    /**
+     * Run a task that blocks on IO periodically, the scheduler only triggers it and the task runs on the background pool.
+     * A run is skipped if the previous one is still blocked.
+     * @param task         task to run
+     * @param initialDelay delay before the first run
+     * @param period       period between runs
+     * @param unit         time unit
+     * @return future that can be used to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleBlockingAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+
+        AtomicBoolean inProgress = new AtomicBoolean(false);
+        return scheduleAtFixedRate(() -> {
+            if (inProgress.compareAndSet(false, true)) {
+                execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        inProgress.set(false);
+                    }
+                });
+            }
+        }, initialDelay, period, unit);
+
+    }
+
+    /**
+     * Run a task that blocks on IO once, the scheduler only triggers it and the task runs on the background pool
+     * @param task  task to run
+     * @param delay delay before running the task
+     * @param unit  time unit
+     * @return future that can be used to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleBlocking(Runnable task, long delay, TimeUnit unit) {
+
+        return schedule(() -> execute(task), delay, unit);
+
+    }
+
+    /**
+     * Run a long running task, it must not run on the shared scheduler
+     * @param task task to run
+     * @return future that can be used to cancel the task
+     */
+    public static Future<?> execute(Runnable task) {
+
+        return background.submit(logExceptions(task));
+
+    }
+
+    /**
+     * Run a task periodically until the pipeline stops
+     * @param task         task to run
+     * @param initialDelay delay before the first run
+     * @param period       period between runs
+     * @param unit         time unit
+     * @return future that can be used to cancel the task
+     */
+    public static ScheduledFuture<?> schedulePipelineTask(Runnable task, long initialDelay, long period, TimeUnit unit) {
+
+        return track(scheduleAtFixedRate(task, initialDelay, period, unit));
+
+    }
+
+    /**
+     * Run a task that blocks on IO periodically until the pipeline stops
+     * @param task         task to run
+     * @param initialDelay delay before the first run
+     * @param period       period between runs
+     * @param unit         time unit
+     * @return future that can be used to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleBlockingPipelineTask(Runnable task, long initialDelay, long period, TimeUnit unit) {
+
+        return track(scheduleBlockingAtFixedRate(task, initialDelay, period, unit));
+
+    }
+
+    /**
+     * Run a long running task after a delay, until the pipeline stops
+     * @param task  task to run
+     * @param delay delay before running the task
+     * @param unit  time unit
+     * @return future that can be used to cancel the task
+     */
+    public static Future<?> executePipelineTask(Runnable task, long delay, TimeUnit unit) {
+
+        return track(schedule(() -> track(execute(task)), delay, unit));
+
+    }
+
+    /**
+     * Cancel every task bound to the capture pipeline
+     */
+    public static void cancelPipelineTasks() {
+
+        pipelineTasks.forEach(future -> future.cancel(true));
+        pipelineTasks.clear();
+
+    }
+
+    /**
+     * Cancel every task, called on exit
+     */
+    public static void shutdown() {
+
+        cancelPipelineTasks();
+        scheduler.shutdownNow();
+        background.shutdownNow();
+
+    }
+
+    /**
+     * Keep track of a pipeline task, completed tasks are removed when they end
+     * @param future task to track
+     * @param <T>    future type
+     * @return the same future
+     */
+    private static <T extends Future<?>> T track(T future) {
+
+        pipelineTasks.add(future);
+        pipelineTasks.removeIf(Future::isDone);
+        return future;
+
+    }
+
+    /**
+     * A periodic task that throws is never run again, log the error and keep it running
+     * @param task task to wrap
+     * @return wrapped task
+     */
+    private static Runnable logExceptions(Runnable task) {
+
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error(e.getMessage(), e);
+            }
+        };
+
+    }
+
+    /**
+     * Shared scheduler, cancelled tasks are removed from the queue immediately
+     * @return scheduler
+     */
+    private static ScheduledThreadPoolExecutor createScheduler() {
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(Constants.SCHEDULER_THREADS, threadFactory("scheduler"));
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+
+    }
+
+    /**
+     * Daemon threads with a readable name
+     * @param name thread name prefix
+     * @return thread factory
+     */
+    private static ThreadFactory threadFactory(String name) {
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+    }
+
+}
@@ -38,7 +38,6 @@ import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.JavaFXStarter;
 import org.dpsoftware.NativeExecutor;
 import org.dpsoftware.config.Constants;
-import org.dpsoftware.gui.controllers.DevicesTabController;
 import org.dpsoftware.gui.GUIManager;
 import org.dpsoftware.gui.elements.GlowWormDevice;
 import org.dpsoftware.managers.dto.WebServerStarterDto;
@@ -59,8 +58,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -267,13 +264,12 @@ public class UpgradeManager {
     public void checkGlowWormUpdates(boolean fireflyUpdate) {
 
         if (FireflyLuciferin.config.isCheckForUpdates() && !FireflyLuciferin.communicationError && !fireflyUpdate) {
-            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-            executor.schedule(() -> {
+            SchedulerManager.scheduleBlocking(() -> {
                 log.debug("Checking for Glow Worm Luciferin Update");
-                if (!DevicesTabController.deviceTableData.isEmpty()) {
+                if (!DeviceRegistry.isEmpty()) {
                     ArrayList<GlowWormDevice> devicesToUpdate = new ArrayList<>();
                     // Updating MQTT devices for FULL firmware or Serial devices for LIGHT firmware
-                    DevicesTabController.deviceTableData.forEach(glowWormDevice -> {
+                    DeviceRegistry.getDevices().forEach(glowWormDevice -> {
                         if (!FireflyLuciferin.config.isMqttEnable() || !glowWormDevice.getDeviceName().equals(Constants.USB_DEVICE)) {
                             // USB Serial device prior to 4.3.8 and there is no version information, needs the update so fake the version
                             if (glowWormDevice.getDeviceVersion().equals(Constants.DASH)) {
@@ -364,7 +360,7 @@ public class UpgradeManager {
                 if (!downloadFirmwareOnly) {
                     // Send data
                     postDataToMicrocontroller(glowWormDevice, localFile);
-                    DevicesTabController.deviceTableData.remove(glowWormDevice);
+                    DeviceRegistry.remove(glowWormDevice);
                 }
             } else {
                 FireflyLuciferin.guiManager.showAlert(Constants.FIREFLY_LUCIFERIN, Constants.CANT_UPGRADE_TOO_OLD,
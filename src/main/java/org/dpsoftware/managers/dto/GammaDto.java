@@ -36,6 +36,6 @@ import lombok.Setter;
 @Setter
 public class GammaDto {
 
-    private double gamma;
+    private Double gamma;
 
 }
\ No newline at end of file
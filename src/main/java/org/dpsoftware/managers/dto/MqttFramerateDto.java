@@ -25,6 +25,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 
+import java.util.Map;
+
 @AllArgsConstructor
 @NoArgsConstructor
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -35,5 +37,11 @@ public class MqttFramerateDto {
 
     private String producing;
     private String consuming;
+    // Latency percentiles by pipeline stage, in microseconds
+    private Map<String, LatencyDto> latency;
+    // Serial write time, throughput and backlog, only when the serial output is in use
+    private SerialMetricsDto serial;
+    // Every registered metric of the last interval
+    private MetricsDto metrics;
 
 }
\ No newline at end of file
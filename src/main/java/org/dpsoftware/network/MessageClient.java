@@ -28,9 +28,11 @@ import com.fasterxml.jackson.databind.ObjectReader;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.config.Constants;
-import org.dpsoftware.gui.controllers.DevicesTabController;
 import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.dpsoftware.managers.DeviceRegistry;
+import org.dpsoftware.managers.SchedulerManager;
 import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -38,8 +40,6 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -109,7 +109,6 @@ public class MessageClient {
      */
     public static void getSingleInstanceMultiScreenStatus() {
 
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
         // Create a task that runs every 2 seconds
         Runnable framerateTask = () -> {
             try {
@@ -127,15 +126,16 @@ public class MessageClient {
                 if (!CommonUtility.isSingleDeviceMainInstance() && exit) {
                     FireflyLuciferin.exit();
                 }
-                FireflyLuciferin.FPS_GW_CONSUMER = Float.parseFloat(stateStatusDto.get(Constants.FPS_GW_CONSUMER).asText());
+                MetricsRegistry.FPS_GW_CONSUMER.set(Float.parseFloat(stateStatusDto.get(Constants.FPS_GW_CONSUMER).asText()));
                 // Update device table data
-                DevicesTabController.deviceTableData.remove(0, DevicesTabController.deviceTableData.size());
                 ObjectMapper mapper = new ObjectMapper();
                 JsonNode arrayNode = stateStatusDto.get(Constants.DEVICE_TABLE_DATA);
                 if (arrayNode.isArray()) {
                     ObjectReader reader = mapper.readerFor(new TypeReference<List<GlowWormDevice>>() {});
                     List<GlowWormDevice> list = reader.readValue(arrayNode);
-                    DevicesTabController.deviceTableData.addAll(list);
+                    DeviceRegistry.replaceAll(list);
+                } else {
+                    DeviceRegistry.replaceAll(List.of());
                 }
                 // Set other instances Running
                 if (FireflyLuciferin.RUNNING != mainInstanceRunning) {
@@ -149,7 +149,7 @@ public class MessageClient {
                 log.error(e.getMessage());
             }
         };
-        scheduledExecutorService.scheduleAtFixedRate(framerateTask, 10, 2, TimeUnit.SECONDS);
+        SchedulerManager.scheduleBlockingAtFixedRate(framerateTask, 10, 2, TimeUnit.SECONDS);
 
     }
 
@@ -22,37 +22,39 @@
 package org.dpsoftware.network;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
-import org.dpsoftware.gui.controllers.DevicesTabController;
+import org.dpsoftware.managers.DeviceRegistry;
+import org.dpsoftware.managers.SchedulerManager;
 import org.dpsoftware.managers.StorageManager;
 import org.dpsoftware.managers.dto.StateStatusDto;
 import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
 
-import java.awt.*;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 
 /**
- * Message server using Java Sockets, used for single instance multi monitor
+ * Non blocking message server using NIO channels, used for single instance multi monitor
  */
 @Slf4j
 public class MessageServer {
 
-    private ServerSocket serverSocket;
-    private static Color[] leds;
-    public static boolean closeServer = false;
+    private volatile Selector selector;
+    private ServerSocketChannel serverChannel;
+    private static LEDFrame leds;
+    public static volatile boolean closeServer = false;
     private static boolean firstDisplayReceived = false;
     private static boolean secondDisplayReceived = false;
     private static boolean thirdDisplayReceived = false;
@@ -64,78 +66,203 @@ public class MessageServer {
     private static Configuration otherConfig3;
 
     /**
-     * Start the message server, accepts multiple connections
+     * Start the message server, accepts multiple connections.
+     * A single selector thread serves every instance, it sleeps in select() until there is something to read or write.
      * @param port used for the message server
      * @throws IOException socket error
      */
     public void start(int port) throws IOException {
 
         log.debug("Starting message server");
-        leds = new Color[totalLedNum];
-        serverSocket = new ServerSocket(port);
-        while (!closeServer) {
-            if (!serverSocket.isClosed()) {
-                new ClientHandler(serverSocket.accept()).start();
+        closeServer = false;
+        leds = new LEDFrame(totalLedNum);
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(Constants.MSG_SERVER_HOST, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        try {
+            while (!closeServer) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        log.error(e.getMessage());
+                        closeConnection(key);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeConnection(key);
             }
+            selector.close();
         }
 
     }
 
     /**
-     * Stop the message server
-     * @throws IOException socket error
+     * Stop the message server, the selector thread closes every connection and exits
      */
-    public void stop() throws IOException {
+    public void stop() {
 
         log.debug("Stopping message server");
-        if (serverSocket != null) {
-            serverSocket.close();
+        closeServer = true;
+        if (selector != null) {
+            selector.wakeup();
         }
 
     }
 
     /**
-     * Client handler, it waits for all the monitors and then sends the message to the queue
+     * Accept a new instance, every connection gets its own bounded buffers
+     * @throws IOException socket error
      */
-    private class ClientHandler extends Thread {
+    private void accept() throws IOException {
 
-        private final Socket clientSocket;
-        public ClientHandler(Socket socket) {
-            this.clientSocket = socket;
+        SocketChannel channel = serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
         }
-        @SneakyThrows
-        public void run() {
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            String inputLine;
-            try {
-                while ((inputLine = in.readLine()) != null) {
-                    // Send status to clients
-                    if (inputLine.equals(Constants.MSG_SERVER_STATUS)) {
-                        StateStatusDto stateStatusDto = new StateStatusDto();
-                        stateStatusDto.setEffect(FireflyLuciferin.config.getEffect());
-                        stateStatusDto.setRunning(FireflyLuciferin.RUNNING);
-                        stateStatusDto.setDeviceTableData(DevicesTabController.deviceTableData);
-                        stateStatusDto.setFpsgwconsumer(FireflyLuciferin.FPS_GW_CONSUMER);
-                        stateStatusDto.setExit(StateStatusDto.closeOtherInstaces);
-                        out.println(CommonUtility.toJsonString(stateStatusDto));
-                    } else if (inputLine.contains(Constants.CLIENT_ACTION)) {
-                        startStopCapture(inputLine);
-                        out.println(Constants.OK);
-                    } else if (Constants.EXIT.equals(inputLine)) {
-                        out.println("bye");
-                        FireflyLuciferin.exit();
-                        break;
-                    } else { // Collect data from clients and send it to the strip
-                        collectAndSendData(inputLine, out);
-                    }
-                }
-                in.close();
-                out.close();
-                clientSocket.close();
-            } catch (SocketException e) {
-                log.error(e.getMessage());
+
+    }
+
+    /**
+     * Read what's available and handle every complete line
+     * @param key connection key
+     * @throws IOException socket error or line longer than the connection buffer
+     */
+    private void read(SelectionKey key) throws IOException {
+
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer input = connection.input;
+        if (channel.read(input) < 0) {
+            closeConnection(key);
+            return;
+        }
+        input.flip();
+        int lineStart = input.position();
+        for (int i = input.position(); i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                int lineEnd = (i > lineStart && input.get(i - 1) == '\r') ? i - 1 : i;
+                String inputLine = new String(input.array(), lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                lineStart = i + 1;
+                handleMessage(inputLine, connection);
+            }
+        }
+        input.position(lineStart);
+        input.compact();
+        if (!input.hasRemaining()) {
+            throw new IOException(Constants.MSG_SERVER_LINE_TOO_LONG);
+        }
+        if (connection.output.position() > 0) {
+            write(key);
+        }
+
+    }
+
+    /**
+     * Write pending responses, wait for OP_WRITE if the socket buffer is full
+     * @param key connection key
+     * @throws IOException socket error
+     */
+    private void write(SelectionKey key) throws IOException {
+
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer output = ((Connection) key.attachment()).output;
+        output.flip();
+        channel.write(output);
+        output.compact();
+        key.interestOps(output.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+    }
+
+    /**
+     * Close a connection
+     * @param key connection key
+     */
+    private void closeConnection(SelectionKey key) {
+
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+
+    }
+
+    /**
+     * Handle a message received from an instance
+     * @param inputLine  message received
+     * @param connection connection where to write the response
+     * @throws IOException response doesn't fit in the connection buffer
+     */
+    private void handleMessage(String inputLine, Connection connection) throws IOException {
+
+        MetricsRegistry.MESSAGE_SERVER_MESSAGES.increment();
+        // Send status to clients
+        if (inputLine.equals(Constants.MSG_SERVER_STATUS)) {
+            StateStatusDto stateStatusDto = new StateStatusDto();
+            stateStatusDto.setEffect(FireflyLuciferin.config.getEffect());
+            stateStatusDto.setRunning(FireflyLuciferin.RUNNING);
+            stateStatusDto.setDeviceTableData(DeviceRegistry.getDevices());
+            stateStatusDto.setFpsgwconsumer(MetricsRegistry.FPS_GW_CONSUMER.get());
+            stateStatusDto.setExit(StateStatusDto.closeOtherInstaces);
+            connection.respond(CommonUtility.toJsonString(stateStatusDto));
+        } else if (inputLine.contains(Constants.CLIENT_ACTION)) {
+            // Starting and stopping the capture is slow, the selector thread must not wait for it
+            SchedulerManager.execute(() -> startStopCapture(inputLine));
+            connection.respond(Constants.OK);
+        } else if (Constants.EXIT.equals(inputLine)) {
+            connection.respond("bye");
+            SchedulerManager.execute(FireflyLuciferin::exit);
+        } else { // Collect data from clients and send it to the strip
+            collectAndSendData(inputLine);
+            connection.respond(inputLine);
+        }
+
+    }
+
+    /**
+     * Per connection bounded buffers, used by the selector thread only
+     */
+    private static class Connection {
+
+        private final ByteBuffer input = ByteBuffer.allocate(Constants.MSG_SERVER_BUFFER_SIZE);
+        private final ByteBuffer output = ByteBuffer.allocate(Constants.MSG_SERVER_BUFFER_SIZE);
+
+        /**
+         * Queue a response line
+         * @param msg response
+         * @throws IOException response doesn't fit in the buffer, the client is not reading
+         */
+        void respond(String msg) throws IOException {
+            byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+            if (output.remaining() < bytes.length + 1) {
+                throw new IOException(Constants.MSG_SERVER_CLIENT_TOO_SLOW);
             }
+            output.put(bytes);
+            output.put((byte) '\n');
         }
 
     }
@@ -162,9 +289,8 @@ public class MessageServer {
     /**
      * Collect data received from the client and send it to the strip
      * @param inputLine message received from the client
-     * @param out       response sent to the client
      */
-    private void collectAndSendData(String inputLine, PrintWriter out) {
+    private void collectAndSendData(String inputLine) {
 
         String[] ledsString = inputLine.split(",");
         int instanceNumber = Integer.parseInt(ledsString[0]);
@@ -183,42 +309,42 @@ public class MessageServer {
         if (FireflyLuciferin.config.getMultiMonitor() == 2 && instanceNumber == 2) {
             int j = 1;
             for (int i = CommonUtility.getBottomLed(otherConfig2) + otherConfig2.getRightLed() + 1; i <= ledsString.length - 1; i++) {
-                leds[startIndex + j] = new Color(Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + j, Integer.parseInt(ledsString[i]));
                 j++;
             }
             startIndex += (j - 1);
             for (int i = 1; i <= (CommonUtility.getBottomLed(otherConfig2) + otherConfig2.getRightLed()); i++) {
-                leds[startIndex + i] = new Color(Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + i, Integer.parseInt(ledsString[i]));
             }
         }
         // Three screen
         if (FireflyLuciferin.config.getMultiMonitor() == 3 && instanceNumber == 2) {
             int j = 1;
             for (int i = CommonUtility.getBottomLed(otherConfig2) + otherConfig2.getRightLed() + 1; i <= ledsString.length - 1; i++) {
-                leds[startIndex + j] = new Color(Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + j, Integer.parseInt(ledsString[i]));
                 j++;
             }
             startIndex += (j - 1) + otherConfig3.getTopLed() + otherConfig3.getLeftLed() + CommonUtility.getBottomLed(otherConfig3);
             for (int i = 1; i <= (CommonUtility.getBottomLed(otherConfig2) + otherConfig2.getRightLed()); i++) {
-                leds[startIndex + i] = new Color(Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + i, Integer.parseInt(ledsString[i]));
             }
         } else if (FireflyLuciferin.config.getMultiMonitor() == 3 && instanceNumber == 3) {
             int j = 1;
             startIndex -= (CommonUtility.getBottomLed(otherConfig2) + otherConfig2.getLeftLed() + otherConfig2.getRightLed());
             for (int i = CommonUtility.getBottomLed(otherConfig3) + otherConfig3.getRightLed() + 1; i <= ledsString.length - 1; i++) {
-                leds[startIndex + j] = new Color(Integer.parseInt(ledsString[i]));
-                leds[startIndex + j] = new Color(Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + j, Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + j, Integer.parseInt(ledsString[i]));
                 j++;
             }
             startIndex += (j - 1) - (otherConfig2.getRightLed() + otherConfig2.getLeftLed() );
             for (int i = 1; i <= (CommonUtility.getBottomLed(otherConfig3) + otherConfig3.getRightLed()); i++) {
-                leds[startIndex + i] = new Color(Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + i, Integer.parseInt(ledsString[i]));
             }
         }
         // Main instance
         if (instanceNumber == 1) {
             for (int i = 1; i <= ledsString.length - 1; i++) {
-                leds[startIndex + i] = new Color(Integer.parseInt(ledsString[i]));
+                leds.set(startIndex + i, Integer.parseInt(ledsString[i]));
             }
         }
         if (FireflyLuciferin.config.getMultiMonitor() == 2 && firstDisplayReceived && secondDisplayReceived) {
@@ -228,7 +354,6 @@ public class MessageServer {
             firstDisplayReceived = false; secondDisplayReceived = false; thirdDisplayReceived = false;
             FireflyLuciferin.sharedQueue.offer(leds);
         }
-        out.println(inputLine);
 
     }
 
@@ -237,14 +362,13 @@ public class MessageServer {
      */
     public static void startMessageServer() {
 
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        executor.schedule(() -> {
+        SchedulerManager.execute(() -> {
             try {
                 messageServer.start(Constants.MSG_SERVER_PORT);
             } catch (IOException e) {
                 log.error(e.getMessage());
             }
-        }, 0, TimeUnit.SECONDS);
+        });
 
     }
 
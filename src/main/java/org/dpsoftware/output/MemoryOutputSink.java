@@ -0,0 +1,75 @@
+/*
+  MemoryOutputSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.utilities.MetricsRegistry;
+
+/**
+ * In memory sink, frames are encoded like a raw serial packet and discarded.
+ * No hardware is needed, it's used to benchmark the capture pipeline at full speed,
+ * encoded frames and bytes are reported with the other metrics.
+ */
+public class MemoryOutputSink implements OutputSink {
+
+    private static final MetricsRegistry.Counter FRAMES = MetricsRegistry.counter("memory.frames");
+    private static final MetricsRegistry.Counter BYTES = MetricsRegistry.counter("memory.bytes");
+    // Confined to the consumer thread
+    private byte[] packet = new byte[0];
+
+    /**
+     * Encode the frame and discard it
+     * @param leds frame to send
+     */
+    @Override
+    public void send(LEDFrame leds) {
+
+        int ledNumber = leds.size();
+        if (packet.length != ledNumber * 3) {
+            packet = new byte[ledNumber * 3];
+        }
+        int[] rgb = leds.getRgb();
+        int j = 0;
+        for (int i = 0; i < ledNumber; i++) {
+            packet[j++] = (byte) (rgb[i] >> 16);
+            packet[j++] = (byte) (rgb[i] >> 8);
+            packet[j++] = (byte) rgb[i];
+        }
+        FRAMES.increment();
+        BYTES.add(packet.length);
+
+    }
+
+    /**
+     * Format the memory output metrics for the log
+     * @param snapshot        metrics snapshot
+     * @param intervalSeconds seconds covered by the snapshot
+     * @return readable string
+     */
+    public static String metricsToLogString(MetricsRegistry.Snapshot snapshot, int intervalSeconds) {
+
+        return " --* memory output " + (snapshot.get(FRAMES) / intervalSeconds) + " frames/s "
+                + (snapshot.get(BYTES) / intervalSeconds) + " B/s *-- ";
+
+    }
+
+}
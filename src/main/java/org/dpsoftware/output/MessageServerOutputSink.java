@@ -0,0 +1,57 @@
+/*
+  MessageServerOutputSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.JavaFXStarter;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.network.MessageClient;
+
+/**
+ * Message server sink, used by every instance when a single device is shared by multiple screens.
+ * Frames are sent via TCP socket to the main instance, it assembles the frames of all the screens and sends them to the strip.
+ */
+public class MessageServerOutputSink implements OutputSink {
+
+    private final StringBuilder message = new StringBuilder();
+
+    /**
+     * Send a frame to the main instance
+     * @param leds frame to send
+     */
+    @Override
+    public synchronized void send(LEDFrame leds) {
+
+        if (MessageClient.msgClient == null || MessageClient.msgClient.clientSocket == null) {
+            MessageClient.msgClient = new MessageClient();
+            MessageClient.msgClient.startConnection(Constants.MSG_SERVER_HOST, Constants.MSG_SERVER_PORT);
+        }
+        message.setLength(0);
+        message.append(JavaFXStarter.whoAmI).append(",");
+        for (int i = 0; i < leds.size(); i++) {
+            message.append(leds.getARGB(i)).append(",");
+        }
+        MessageClient.msgClient.sendMessage(message.toString());
+
+    }
+
+}
@@ -0,0 +1,375 @@
+/*
+  MqttOutputSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.audio.AudioLoopback;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.managers.MQTTManager;
+import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.FrameLatency;
+import org.dpsoftware.utilities.MetricsRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * MQTT stream sink, frames are published to the stream topic (FULL firmware).
+ * Every chunk of a frame is encoded in a single pass over the LEDs and the chunks are published as a batch.
+ * By default frames use the fixed layout understood by every firmware:
+ * - text, comma separated colors "lednum,brightness,color,...,0", a single message with up to MAX_CHUNK LEDs
+ * - JSON when enabled, {"lednum":N,"part":P,"stream":[color,...]}, parts of FIRST_CHUNK LEDs, the fourth part carries the remaining LEDs
+ * - binary packed RGB when enabled, a single message:
+ *   "DPB" magic, number of LEDs (2 bytes, big endian), brightness, RGB, 3 bytes for every LED
+ * When a max payload size is set in the config, frames are split in chunks that fit it and every chunk carries its offset:
+ * - text carries as many LEDs as fit, never less than MAX_CHUNK
+ * - JSON, {"lednum":N,"part":P,"offset":O,"stream":[color,...]}
+ * - binary, the header is followed by the index of the first LED (2 bytes, big endian)
+ */
+public class MqttOutputSink implements OutputSink {
+
+    public static final byte[] BINARY_MAGIC = {'D', 'P', 'B'};
+    public static final int BINARY_HEADER_SIZE = 6;
+    public static final int BINARY_CHUNK_HEADER_SIZE = 8;
+    // Longest color in text, "-16777216,"
+    static final int TEXT_LED_MAX_BYTES = 10;
+    // Longest text header and footer, JSON "{"lednum":65535,"part":65535,"offset":65535,"stream":[" and "]}"
+    static final int TEXT_HEADER_MAX_BYTES = 64;
+    private static final byte[] JSON_LED_NUM = ("{" + Constants.LED_NUM).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_PART = ",\"part\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_OFFSET = ",\"offset\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_STREAM = ("," + Constants.STREAM).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_END = "]}".getBytes(StandardCharsets.US_ASCII);
+    // Encoded frames, one for every frame in flight, payloads are reused while their size doesn't change
+    private final Queue<Chunks> frames = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructor
+     */
+    public MqttOutputSink() {
+
+        for (int i = 0; i < Constants.MQTT_STREAM_WINDOW; i++) {
+            frames.add(new Chunks());
+        }
+
+    }
+
+    /**
+     * Send a frame to the stream topic, in multiple chunks if needed
+     * @param leds frame to send
+     */
+    @Override
+    public void send(LEDFrame leds) {
+
+        // Broker is behind, drop the whole frame instead of a part of it
+        if (!MQTTManager.isStreamWindowAvailable()) {
+            MetricsRegistry.MQTT_STREAM_DROPPED.increment();
+            return;
+        }
+        Chunks chunks = frames.poll();
+        if (chunks == null) {
+            MetricsRegistry.MQTT_STREAM_DROPPED.increment();
+            return;
+        }
+        int maxPayload = getMaxPayload();
+        if (FireflyLuciferin.config.isMqttBinaryStream()) {
+            encodeBinary(leds, chunks, maxPayload);
+        } else {
+            encodeText(leds, chunks, maxPayload);
+        }
+        long captureNanos = leds.getCaptureNanos();
+        long dequeueNanos = leds.getDequeueNanos();
+        MQTTManager.stream(chunks.payloads, chunks.count, published -> {
+            // The frame is written when the broker acknowledged its last chunk
+            if (published) {
+                FrameLatency.written(captureNanos, dequeueNanos);
+            }
+            frames.add(chunks);
+        });
+
+    }
+
+    /**
+     * Chunks are published without waiting for the broker, latency is recorded when the last chunk is acknowledged
+     * @return true
+     */
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    /**
+     * Encode the frame as binary packed RGB, a single message or chunks with their offset
+     * @param leds       frame to encode
+     * @param chunks     destination, payloads are reused if their size is the same
+     * @param maxPayload max size of a chunk in bytes, 0 for a single message
+     */
+    void encodeBinary(LEDFrame leds, Chunks chunks, int maxPayload) {
+
+        int ledNum = leds.size();
+        boolean withOffset = maxPayload > 0;
+        int headerSize = withOffset ? BINARY_CHUNK_HEADER_SIZE : BINARY_HEADER_SIZE;
+        int ledsPerChunk = withOffset ? getLedsPerChunk(maxPayload, true) : ledNum;
+        int count = getChunkCount(ledNum, maxPayload, true);
+        chunks.ensureCapacity(count, 0);
+        int brightness = getBrightness();
+        int[] rgb = leds.getRgb();
+        int i = 0;
+        for (int c = 0; c < count; c++) {
+            int end = Math.min(ledNum, i + ledsPerChunk);
+            int size = headerSize + ((end - i) * 3);
+            byte[] payload = chunks.payloads[c];
+            if (payload == null || payload.length != size) {
+                payload = new byte[size];
+                System.arraycopy(BINARY_MAGIC, 0, payload, 0, BINARY_MAGIC.length);
+                chunks.payloads[c] = payload;
+            }
+            payload[3] = (byte) (ledNum >> 8);
+            payload[4] = (byte) ledNum;
+            payload[5] = (byte) brightness;
+            if (withOffset) {
+                payload[6] = (byte) (i >> 8);
+                payload[7] = (byte) i;
+            }
+            int j = headerSize;
+            for (; i < end; i++) {
+                payload[j++] = (byte) (rgb[i] >> 16);
+                payload[j++] = (byte) (rgb[i] >> 8);
+                payload[j++] = (byte) rgb[i];
+            }
+        }
+        chunks.count = count;
+
+    }
+
+    /**
+     * Encode the frame as text, JSON parts or a single comma separated message
+     * @param leds       frame to encode
+     * @param chunks     destination, payloads are reused if their size is the same
+     * @param maxPayload max size of a chunk in bytes, 0 for the fixed parts
+     */
+    void encodeText(LEDFrame leds, Chunks chunks, int maxPayload) {
+
+        int ledNum = leds.size();
+        boolean withOffset = maxPayload > 0;
+        boolean json = isJsonStream();
+        int ledsPerChunk = getLedsPerChunk(maxPayload, false);
+        int count = getChunkCount(ledNum, maxPayload, false);
+        // Upper bound of a chunk, every LED in the same message
+        chunks.ensureCapacity(count, TEXT_HEADER_MAX_BYTES + (ledNum * TEXT_LED_MAX_BYTES));
+        byte[] scratch = chunks.scratch;
+        int i = 0;
+        for (int c = 0; c < count; c++) {
+            // The last fixed JSON part carries every remaining LED
+            int end = (!withOffset && json && c == count - 1) ? ledNum : Math.min(ledNum, i + ledsPerChunk);
+            int j = 0;
+            if (json) {
+                j = put(scratch, j, JSON_LED_NUM);
+                j = putInt(scratch, j, ledNum);
+                j = put(scratch, j, JSON_PART);
+                j = putInt(scratch, j, c + 1);
+                if (withOffset) {
+                    j = put(scratch, j, JSON_OFFSET);
+                    j = putInt(scratch, j, i);
+                }
+                j = put(scratch, j, JSON_STREAM);
+                for (; i < end; i++) {
+                    j = putInt(scratch, j, leds.getARGB(i));
+                    if (i < end - 1) {
+                        scratch[j++] = ',';
+                    }
+                }
+                j = put(scratch, j, JSON_END);
+            } else {
+                j = putInt(scratch, j, ledNum);
+                scratch[j++] = ',';
+                j = putInt(scratch, j, getBrightness());
+                scratch[j++] = ',';
+                for (; i < end; i++) {
+                    j = putInt(scratch, j, leds.getARGB(i));
+                    scratch[j++] = ',';
+                }
+                scratch[j++] = '0';
+            }
+            byte[] payload = chunks.payloads[c];
+            if (payload == null || payload.length != j) {
+                chunks.payloads[c] = Arrays.copyOf(scratch, j);
+            } else {
+                System.arraycopy(scratch, 0, payload, 0, j);
+            }
+        }
+        chunks.count = count;
+
+    }
+
+    /**
+     * Max size of a message, from the config
+     * @return max payload size in bytes, 0 if frames use the fixed parts
+     */
+    public static int getMaxPayload() {
+
+        int maxPayload = FireflyLuciferin.config.getMqttStreamMaxPayload();
+        return maxPayload <= 0 ? 0 : Math.max(Constants.MQTT_STREAM_MIN_PAYLOAD, maxPayload);
+
+    }
+
+    /**
+     * JSON parts or comma separated text, from the config
+     * @return true if text frames are sent as JSON parts
+     */
+    public static boolean isJsonStream() {
+
+        return FireflyLuciferin.config.isMqttJsonStream();
+
+    }
+
+    /**
+     * Number of messages a frame is split in
+     * @param ledNum     number of LEDs
+     * @param maxPayload max size of a message in bytes, 0 for the fixed parts
+     * @param binary     binary packed RGB or text
+     * @return number of messages
+     */
+    public static int getChunkCount(int ledNum, int maxPayload, boolean binary) {
+
+        // Comma separated stream has no part, LEDs that don't fit in a message are not sent
+        if (!binary && !isJsonStream()) {
+            return 1;
+        }
+        if (maxPayload <= 0) {
+            if (binary || ledNum < Constants.FIRST_CHUNK) {
+                return 1;
+            } else if (ledNum < Constants.SECOND_CHUNK) {
+                return 2;
+            } else if (ledNum <= Constants.THIRD_CHUNK) {
+                return 3;
+            }
+            return 4;
+        }
+        int ledsPerChunk = getLedsPerChunk(maxPayload, binary);
+        return Math.max(1, (ledNum + ledsPerChunk - 1) / ledsPerChunk);
+
+    }
+
+    /**
+     * Number of LEDs in a message, the last fixed JSON part carries every remaining LED
+     * @param maxPayload max size of a message in bytes, 0 for the fixed parts
+     * @param binary     binary packed RGB or text
+     * @return number of LEDs
+     */
+    static int getLedsPerChunk(int maxPayload, boolean binary) {
+
+        if (binary) {
+            return maxPayload <= 0 ? Integer.MAX_VALUE : (maxPayload - BINARY_CHUNK_HEADER_SIZE) / 3;
+        }
+        if (!isJsonStream()) {
+            // A single message, at least as many LEDs as the fixed layout
+            return maxPayload <= 0 ? Constants.MAX_CHUNK
+                    : Math.max(Constants.MAX_CHUNK, (maxPayload - TEXT_HEADER_MAX_BYTES) / TEXT_LED_MAX_BYTES);
+        }
+        return maxPayload <= 0 ? Constants.FIRST_CHUNK : (maxPayload - TEXT_HEADER_MAX_BYTES) / TEXT_LED_MAX_BYTES;
+
+    }
+
+    /**
+     * Brightness to send, audio brightness when audio effects are running
+     * @return brightness
+     */
+    private static int getBrightness() {
+
+        return AudioLoopback.AUDIO_BRIGHTNESS == 255 ? CommonUtility.getNightBrightness() : AudioLoopback.AUDIO_BRIGHTNESS;
+
+    }
+
+    /**
+     * Write ASCII bytes
+     * @param payload destination
+     * @param j       index
+     * @param bytes   bytes to write
+     * @return next index
+     */
+    private static int put(byte[] payload, int j, byte[] bytes) {
+
+        System.arraycopy(bytes, 0, payload, j, bytes.length);
+        return j + bytes.length;
+
+    }
+
+    /**
+     * Write a number in decimal ASCII, without creating a String
+     * @param payload destination
+     * @param j       index
+     * @param value   number to write
+     * @return next index
+     */
+    static int putInt(byte[] payload, int j, int value) {
+
+        long remaining = value;
+        if (remaining < 0) {
+            payload[j++] = '-';
+            remaining = -remaining;
+        }
+        int start = j;
+        do {
+            payload[j++] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining > 0);
+        // Digits are written from the least significant one
+        for (int left = start, right = j - 1; left < right; left++, right--) {
+            byte digit = payload[left];
+            payload[left] = payload[right];
+            payload[right] = digit;
+        }
+        return j;
+
+    }
+
+    /**
+     * Chunks of a frame, owned by the frame until the broker acknowledges every chunk
+     */
+    static class Chunks {
+
+        private byte[][] payloads = new byte[0][];
+        private int count;
+        // Text is written here first, its size is known only at the end
+        private byte[] scratch = new byte[0];
+
+        /**
+         * Make room for the chunks of a frame
+         * @param count       number of chunks
+         * @param scratchSize size of the text buffer
+         */
+        void ensureCapacity(int count, int scratchSize) {
+            if (payloads.length < count) {
+                payloads = Arrays.copyOf(payloads, count);
+            }
+            if (scratch.length < scratchSize) {
+                scratch = new byte[scratchSize];
+            }
+        }
+
+    }
+
+}
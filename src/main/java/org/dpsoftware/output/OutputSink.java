@@ -0,0 +1,54 @@
+/*
+  OutputSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.LEDFrame;
+
+import java.io.IOException;
+
+/**
+ * Destination of the frames sent by the consumer, the sink is chosen once when the pipeline starts
+ */
+public interface OutputSink {
+
+    /**
+     * Send a frame, LEDs are already reordered for the strip
+     * @param leds frame to send, it may be reused by the caller after this call
+     * @throws IOException can't send the frame
+     */
+    void send(LEDFrame leds) throws IOException;
+
+    /**
+     * Asynchronous sinks record the write latency themselves, when the frame is actually written
+     * @return true if send() returns before the frame is written
+     */
+    default boolean isAsync() {
+        return false;
+    }
+
+    /**
+     * Release the resources used by the sink, called when the sink is replaced
+     */
+    default void close() {
+    }
+
+}
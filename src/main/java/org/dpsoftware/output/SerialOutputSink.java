@@ -0,0 +1,55 @@
+/*
+  SerialOutputSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+
+import java.io.IOException;
+
+/**
+ * Serial sink, frames are written to the serial port by the serial writer thread (LIGHT firmware or FULL firmware without stream)
+ */
+public class SerialOutputSink implements OutputSink {
+
+    /**
+     * Send a frame via USB serial
+     * @param leds frame to send
+     * @throws IOException can't write to serial
+     */
+    @Override
+    public void send(LEDFrame leds) throws IOException {
+
+        FireflyLuciferin.sendColorsViaUSB(leds);
+
+    }
+
+    /**
+     * Frames are written by the serial writer thread
+     * @return true
+     */
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+}
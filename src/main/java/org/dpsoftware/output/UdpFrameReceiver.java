@@ -0,0 +1,155 @@
+/*
+  UdpFrameReceiver.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.Getter;
+import org.dpsoftware.config.Constants;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reference receiver for the UDP stream, it's what the firmware does with the datagrams sent by UdpOutputSink.
+ * It can be run on localhost to check the stream without a device, see UdpStreamTest.
+ */
+public class UdpFrameReceiver implements AutoCloseable {
+
+    private final DatagramSocket socket;
+    private final DatagramPacket packet = new DatagramPacket(new byte[Constants.UDP_MAX_PAYLOAD], Constants.UDP_MAX_PAYLOAD);
+    // Colors shown, LEDs not received in the last frame keep the previous color
+    @Getter
+    private int[] leds = new int[0];
+    @Getter
+    private int brightness;
+    @Getter
+    private int sequence = -1;
+    private int receivedLeds;
+    // Frames never completed and datagrams dropped because they belong to an older frame
+    @Getter
+    private long incompleteFrames;
+    @Getter
+    private long staleDatagrams;
+
+    /**
+     * Constructor
+     * @param address address to listen on
+     * @param port    port to listen on
+     * @throws IOException can't open the socket
+     */
+    public UdpFrameReceiver(InetAddress address, int port) throws IOException {
+
+        socket = new DatagramSocket(port, address);
+
+    }
+
+    /**
+     * Port the receiver is listening on
+     * @return local port
+     */
+    public int getPort() {
+
+        return socket.getLocalPort();
+
+    }
+
+    /**
+     * Receive a datagram
+     * @param timeoutMillis max time to wait, 0 waits forever
+     * @return true if the datagram completed a frame
+     * @throws IOException socket error
+     */
+    public boolean receive(int timeoutMillis) throws IOException {
+
+        socket.setSoTimeout(timeoutMillis);
+        try {
+            socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        return apply(packet.getData(), packet.getLength());
+
+    }
+
+    /**
+     * Apply a datagram, datagrams of older frames are dropped
+     * @param data   datagram
+     * @param length datagram length
+     * @return true if the datagram completed a frame
+     */
+    boolean apply(byte[] data, int length) {
+
+        if (length < UdpOutputSink.HEADER_SIZE || data[0] != UdpOutputSink.MAGIC[0] || data[1] != UdpOutputSink.MAGIC[1]
+                || data[2] != UdpOutputSink.MAGIC[2]) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, UdpOutputSink.MAGIC.length, length - UdpOutputSink.MAGIC.length);
+        int frameSequence = buffer.getShort() & 0xFFFF;
+        int offset = buffer.getShort() & 0xFFFF;
+        int count = buffer.getShort() & 0xFFFF;
+        int ledNumber = buffer.getShort() & 0xFFFF;
+        int frameBrightness = buffer.get() & 0xFF;
+        if (offset + count > ledNumber || buffer.remaining() < count * 3) {
+            return false;
+        }
+        if (sequence >= 0) {
+            // Sequence numbers wrap around, anything up to half the range behind is an older frame
+            short distance = (short) (frameSequence - sequence);
+            if (distance < 0) {
+                staleDatagrams++;
+                return false;
+            }
+            if (distance > 0 && receivedLeds < leds.length) {
+                incompleteFrames++;
+            }
+            if (distance > 0) {
+                receivedLeds = 0;
+            }
+        }
+        if (leds.length != ledNumber) {
+            leds = new int[ledNumber];
+            receivedLeds = 0;
+        }
+        sequence = frameSequence;
+        brightness = frameBrightness;
+        for (int i = offset; i < offset + count; i++) {
+            leds[i] = ((buffer.get() & 0xFF) << 16) | ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
+        }
+        receivedLeds += count;
+        return receivedLeds >= ledNumber;
+
+    }
+
+    /**
+     * Close the socket
+     */
+    @Override
+    public void close() {
+
+        socket.close();
+
+    }
+
+}
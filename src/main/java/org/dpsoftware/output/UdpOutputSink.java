@@ -0,0 +1,176 @@
+/*
+  UdpOutputSink.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.audio.AudioLoopback;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.dpsoftware.utilities.CommonUtility;
+import org.dpsoftware.utilities.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP stream sink, frames are sent straight to the device IP without going through the MQTT broker.
+ *
+ * Every frame is split in datagrams that fit in a single ethernet frame, each datagram is:
+ * - "DPU" magic
+ * - frame sequence number, LED offset, LEDs in this datagram, LEDs in the frame (2 bytes each, big endian)
+ * - brightness
+ * - RGB, 3 bytes for every LED
+ *
+ * Datagrams are never retransmitted, the device shows the newest frame and drops datagrams of older frames,
+ * a lost datagram only leaves a part of the strip on the previous frame. See UdpFrameReceiver.
+ */
+@Slf4j
+public class UdpOutputSink implements OutputSink {
+
+    public static final byte[] MAGIC = {'D', 'P', 'U'};
+    public static final int HEADER_SIZE = 12;
+    public static final int MAX_LEDS_PER_DATAGRAM = (Constants.UDP_MAX_PAYLOAD - HEADER_SIZE) / 3;
+
+    private DatagramChannel channel;
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(Constants.UDP_MAX_PAYLOAD);
+    // Fixed destination, null to stream to the device in use
+    private final InetSocketAddress target;
+    private int sequence;
+    private long lastLookupNanos;
+
+    /**
+     * Constructor, frames are sent to the device in use
+     */
+    public UdpOutputSink() {
+
+        this(null, 0);
+
+    }
+
+    /**
+     * Constructor
+     * @param target        fixed destination, null to stream to the device in use
+     * @param firstSequence sequence number of the first frame
+     */
+    UdpOutputSink(InetSocketAddress target, int firstSequence) {
+
+        this.target = target;
+        this.sequence = firstSequence & 0xFFFF;
+
+    }
+
+    /**
+     * Send a frame to the device
+     * @param leds frame to send
+     */
+    @Override
+    public void send(LEDFrame leds) {
+
+        if (channel == null && !connect()) {
+            MetricsRegistry.FRAMES_DROPPED.increment();
+            return;
+        }
+        int ledNumber = leds.size();
+        int[] rgb = leds.getRgb();
+        int brightness = (AudioLoopback.AUDIO_BRIGHTNESS == 255 ? CommonUtility.getNightBrightness() : AudioLoopback.AUDIO_BRIGHTNESS) & 0xff;
+        try {
+            for (int offset = 0; offset < ledNumber; offset += MAX_LEDS_PER_DATAGRAM) {
+                int count = Math.min(MAX_LEDS_PER_DATAGRAM, ledNumber - offset);
+                datagram.clear();
+                datagram.put(MAGIC);
+                datagram.putShort((short) sequence);
+                datagram.putShort((short) offset);
+                datagram.putShort((short) count);
+                datagram.putShort((short) ledNumber);
+                datagram.put((byte) brightness);
+                for (int i = offset; i < offset + count; i++) {
+                    datagram.put((byte) (rgb[i] >> 16));
+                    datagram.put((byte) (rgb[i] >> 8));
+                    datagram.put((byte) rgb[i]);
+                }
+                datagram.flip();
+                // Non blocking, if the socket buffer is full the datagram is lost like any other UDP datagram
+                channel.write(datagram);
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            close();
+        }
+        sequence = (sequence + 1) & 0xFFFF;
+
+    }
+
+    /**
+     * Open the channel to the target or to the device in use, the device IP is looked up at most once per second
+     * @return true if the channel is open
+     */
+    private boolean connect() {
+
+        long now = System.nanoTime();
+        if (lastLookupNanos != 0 && now - lastLookupNanos < TimeUnit.SECONDS.toNanos(1)) {
+            return false;
+        }
+        lastLookupNanos = now;
+        InetSocketAddress address = target;
+        if (address == null) {
+            GlowWormDevice glowWormDevice = CommonUtility.getDeviceToUse();
+            if (glowWormDevice == null || glowWormDevice.getDeviceIP() == null || glowWormDevice.getDeviceIP().isEmpty()) {
+                return false;
+            }
+            address = new InetSocketAddress(glowWormDevice.getDeviceIP(), Constants.UDP_STREAM_PORT);
+        }
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            return true;
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            close();
+            return false;
+        }
+
+    }
+
+    /**
+     * Close the channel, it's opened again on the next frame
+     */
+    @Override
+    public void close() {
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error(e.getMessage());
+            }
+            channel = null;
+        }
+
+    }
+
+}
@@ -29,8 +29,8 @@ import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.JavaFXStarter;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
-import org.dpsoftware.gui.controllers.DevicesTabController;
 import org.dpsoftware.gui.elements.GlowWormDevice;
+import org.dpsoftware.managers.DeviceRegistry;
 
 import java.util.concurrent.TimeUnit;
 
@@ -84,27 +84,20 @@ public class CommonUtility {
         // MQTT Stream
         if (FireflyLuciferin.config.isMqttStream()) {
             if (!FireflyLuciferin.config.getSerialPort().equals(Constants.SERIAL_PORT_AUTO) || FireflyLuciferin.config.getMultiMonitor() > 1) {
-                glowWormDeviceToUse = DevicesTabController.deviceTableData.stream()
-                        .filter(glowWormDevice -> glowWormDevice.getDeviceName().equals(FireflyLuciferin.config.getSerialPort()))
-                        .findAny().orElse(null);
-            } else if (DevicesTabController.deviceTableData != null && DevicesTabController.deviceTableData.size() > 0) {
-                glowWormDeviceToUse = DevicesTabController.deviceTableData.get(0);
+                glowWormDeviceToUse = DeviceRegistry.findByName(FireflyLuciferin.config.getSerialPort());
+            } else if (!DeviceRegistry.isEmpty()) {
+                glowWormDeviceToUse = DeviceRegistry.getFirst();
             }
         } else if (FireflyLuciferin.config.isMqttEnable()) { // MQTT Enabled
             // Waiting both MQTT and serial device
-            GlowWormDevice glowWormDeviceSerial = DevicesTabController.deviceTableData.stream()
-                    .filter(glowWormDevice -> glowWormDevice.getDeviceName().equals(Constants.USB_DEVICE))
-                    .findAny().orElse(null);
+            GlowWormDevice glowWormDeviceSerial = DeviceRegistry.findByName(Constants.USB_DEVICE);
             if (glowWormDeviceSerial != null && glowWormDeviceSerial.getMac() != null) {
-                glowWormDeviceToUse = DevicesTabController.deviceTableData.stream()
-                        .filter(glowWormDevice -> glowWormDevice.getMac().equals(glowWormDeviceSerial.getMac()))
+                glowWormDeviceToUse = DeviceRegistry.findByMac(glowWormDeviceSerial.getMac()).stream()
                         .filter(glowWormDevice -> !glowWormDevice.getDeviceName().equals(Constants.USB_DEVICE))
                         .findAny().orElse(null);
             }
         } else { // Serial only
-            glowWormDeviceToUse = DevicesTabController.deviceTableData.stream()
-                    .filter(glowWormDevice -> glowWormDevice.getDeviceName().equals(Constants.USB_DEVICE))
-                    .findAny().orElse(null);
+            glowWormDeviceToUse = DeviceRegistry.findByName(Constants.USB_DEVICE);
         }
         return glowWormDeviceToUse;
 
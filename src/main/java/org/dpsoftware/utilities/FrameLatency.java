@@ -0,0 +1,141 @@
+/*
+  FrameLatency.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.utilities;
+
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.managers.dto.LatencyDto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * End to end latency of the captured frames, one histogram for every stage between the screen and the LEDs.
+ * Frames are stamped at capture and after processing by the producers, the consumer records the time spent in the queue.
+ * The write stage is recorded when the frame leaves the app, by the consumer for synchronous sinks
+ * and by the sink itself for asynchronous ones.
+ */
+public class FrameLatency {
+
+    public static final String PROCESSING = "processing";
+    public static final String QUEUE = "queue";
+    public static final String WRITE = "write";
+    public static final String TOTAL = "total";
+
+    private static final MetricsRegistry.Timer processing = MetricsRegistry.timer("latency." + PROCESSING);
+    private static final MetricsRegistry.Timer queue = MetricsRegistry.timer("latency." + QUEUE);
+    private static final MetricsRegistry.Timer write = MetricsRegistry.timer("latency." + WRITE);
+    private static final MetricsRegistry.Timer total = MetricsRegistry.timer("latency." + TOTAL);
+
+    /**
+     * Stamp a frame at the end of the processing, with the time of the screen capture it comes from
+     * @param frame        processed frame
+     * @param captureNanos capture time
+     */
+    public static void processed(LEDFrame frame, long captureNanos) {
+
+        frame.setCaptureNanos(captureNanos);
+        frame.setProcessedNanos(System.nanoTime());
+
+    }
+
+    /**
+     * Record the processing and queue stages, called by the consumer when the frame is dequeued
+     * @param frame dequeued frame
+     * @return dequeue time
+     */
+    public static long dequeued(LEDFrame frame) {
+
+        long now = System.nanoTime();
+        frame.setDequeueNanos(now);
+        if (frame.getCaptureNanos() > 0) {
+            processing.record(frame.getProcessedNanos() - frame.getCaptureNanos());
+            queue.record(now - frame.getProcessedNanos());
+        }
+        return now;
+
+    }
+
+    /**
+     * Record the write stage and the end to end latency of a frame that has been sent
+     * @param frame sent frame, stamped by processed() and dequeued()
+     */
+    public static void written(LEDFrame frame) {
+
+        written(frame.getCaptureNanos(), frame.getDequeueNanos());
+
+    }
+
+    /**
+     * Record the write stage and the end to end latency, used by asynchronous sinks that don't own the frame anymore
+     * @param captureNanos capture time, 0 if the frame doesn't come from a screen capture
+     * @param dequeueNanos dequeue time
+     */
+    public static void written(long captureNanos, long dequeueNanos) {
+
+        if (captureNanos > 0) {
+            long now = System.nanoTime();
+            write.record(now - dequeueNanos);
+            total.record(now - captureNanos);
+        }
+
+    }
+
+    /**
+     * Percentiles of every stage
+     * @param snapshot metrics snapshot
+     * @return percentiles by stage, null if no captured frame has been sent
+     */
+    public static Map<String, LatencyDto> fromSnapshot(MetricsRegistry.Snapshot snapshot) {
+
+        Map<String, LatencyDto> latency = new LinkedHashMap<>();
+        putIfRecorded(latency, PROCESSING, snapshot.get(processing));
+        putIfRecorded(latency, QUEUE, snapshot.get(queue));
+        putIfRecorded(latency, WRITE, snapshot.get(write));
+        putIfRecorded(latency, TOTAL, snapshot.get(total));
+        return latency.isEmpty() ? null : latency;
+
+    }
+
+    /**
+     * Format percentiles for the log
+     * @param latency percentiles by stage
+     * @return readable string
+     */
+    public static String toLogString(Map<String, LatencyDto> latency) {
+
+        StringBuilder sb = new StringBuilder();
+        latency.forEach((stage, dto) -> sb.append(" --* ").append(stage).append(" p50=").append(dto.getP50())
+                .append("us p95=").append(dto.getP95()).append("us p99=").append(dto.getP99())
+                .append("us max=").append(dto.getMax()).append("us *-- "));
+        return sb.toString();
+
+    }
+
+    private static void putIfRecorded(Map<String, LatencyDto> latency, String stage, LatencyDto dto) {
+
+        if (dto != null) {
+            latency.put(stage, dto);
+        }
+
+    }
+
+}
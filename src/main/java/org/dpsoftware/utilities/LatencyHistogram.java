@@ -0,0 +1,135 @@
+/*
+  LatencyHistogram.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.utilities;
+
+import org.dpsoftware.managers.dto.LatencyDto;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory latency histogram, safe to record from multiple threads.
+ * Values are stored in microseconds using log linear buckets (8 buckets for every power of two),
+ * so percentiles have at most 12.5% error whatever the number of recorded values.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values up to 2^36 microseconds (about 19 hours), bigger values go in the last bucket
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = LINEAR_BUCKETS + ((MAX_EXPONENT - 4) * SUB_BUCKETS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        max.accumulateAndGet(micros, Math::max);
+
+    }
+
+    /**
+     * Compute percentiles and reset the histogram
+     * @return percentiles in microseconds, null if nothing has been recorded
+     */
+    public LatencyDto snapshotAndReset() {
+
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+            total += snapshot[i];
+        }
+        long maxValue = max.getAndSet(0);
+        if (total == 0) {
+            return null;
+        }
+        return new LatencyDto(percentile(snapshot, total, 0.50), percentile(snapshot, total, 0.95),
+                percentile(snapshot, total, 0.99), maxValue);
+
+    }
+
+    /**
+     * Value at the given percentile
+     * @param snapshot bucket counts
+     * @param total    number of recorded values
+     * @param quantile from 0.0 to 1.0
+     * @return upper bound of the bucket containing the percentile
+     */
+    private static long percentile(long[] snapshot, long total, double quantile) {
+
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+
+    }
+
+    /**
+     * Bucket index of a value
+     * @param micros value in microseconds
+     * @return bucket index
+     */
+    static int bucketOf(long micros) {
+
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + ((exponent - 4) * SUB_BUCKETS) + subBucket;
+
+    }
+
+    /**
+     * Biggest value stored in a bucket
+     * @param bucket bucket index
+     * @return value in microseconds
+     */
+    static long upperBoundOf(int bucket) {
+
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = ((bucket - LINEAR_BUCKETS) / SUB_BUCKETS) + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+  MetricsRegistry.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.utilities;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.dpsoftware.managers.dto.LatencyDto;
+import org.dpsoftware.managers.dto.MetricsDto;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe metrics registry shared by capture, processing, queue, serial, MQTT, message server and audio paths.
+ * Counters are striped (LongAdder) so producers never contend on a shared field, gauges are single volatile values,
+ * timers are fixed memory latency histograms. Hot paths keep a reference to their metric, no lookup per frame.
+ */
+public class MetricsRegistry {
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    // Frames offered by the producers (screen capture, audio effects, message server)
+    public static final Counter FRAMES_PRODUCED = counter("frames.produced");
+    // Frames sent to the strip by the consumer
+    public static final Counter FRAMES_CONSUMED = counter("frames.consumed");
+    // Frames replaced in the mailbox before the consumer took them
+    public static final Counter FRAMES_OVERWRITTEN = counter("frames.overwritten");
+    // Frames taken by the consumer but not sent
+    public static final Counter FRAMES_DROPPED = counter("frames.dropped");
+    public static final Counter AUDIO_FRAMES = counter("audio.frames");
+    public static final Counter SERIAL_BYTES = counter("serial.bytes");
+    public static final Counter MQTT_MESSAGES = counter("mqtt.messages");
+    public static final Counter MQTT_ERRORS = counter("mqtt.errors");
+    // Stream messages dropped because the in flight window was full
+    public static final Counter MQTT_STREAM_DROPPED = counter("mqtt.stream.dropped");
+    public static final Counter MESSAGE_SERVER_MESSAGES = counter("messageserver.messages");
+    public static final Gauge FPS_PRODUCER = gauge("fps.producer");
+    public static final Gauge FPS_CONSUMER = gauge("fps.consumer");
+    // Framerate measured on the Glow Worm device
+    public static final Gauge FPS_GW_CONSUMER = gauge("fps.device");
+    // Serial packets encoded and waiting for the serial writer
+    public static final Gauge SERIAL_BACKLOG = gauge("serial.backlog");
+    public static final Timer SERIAL_WRITE = timer("serial.write");
+    // Blocking publish of the control messages (state, config, framerate...)
+    public static final Timer MQTT_PUBLISH = timer("mqtt.publish");
+    // Stream frames, from the publish to the broker acknowledge of every payload
+    public static final Timer MQTT_STREAM_PUBLISH = timer("mqtt.stream.publish");
+
+    /**
+     * Get or create a counter
+     * @param name metric name
+     * @return counter
+     */
+    public static Counter counter(String name) {
+
+        return counters.computeIfAbsent(name, Counter::new);
+
+    }
+
+    /**
+     * Get or create a gauge
+     * @param name metric name
+     * @return gauge
+     */
+    public static Gauge gauge(String name) {
+
+        return gauges.computeIfAbsent(name, Gauge::new);
+
+    }
+
+    /**
+     * Get or create a timer
+     * @param name metric name
+     * @return timer
+     */
+    public static Timer timer(String name) {
+
+        return timers.computeIfAbsent(name, Timer::new);
+
+    }
+
+    /**
+     * Read every metric and reset counters and timers, snapshots are serialized so two readers never split an interval
+     * @return snapshot of the last interval
+     */
+    public static synchronized Snapshot snapshotAndReset() {
+
+        Map<String, Long> counterValues = new LinkedHashMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.sumThenReset()));
+        Map<String, Float> gaugeValues = new LinkedHashMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.get()));
+        Map<String, LatencyDto> timerValues = new LinkedHashMap<>();
+        timers.forEach((name, timer) -> {
+            LatencyDto latency = timer.snapshotAndReset();
+            if (latency != null) {
+                timerValues.put(name, latency);
+            }
+        });
+        return new Snapshot(Collections.unmodifiableMap(counterValues), Collections.unmodifiableMap(gaugeValues),
+                Collections.unmodifiableMap(timerValues));
+
+    }
+
+    /**
+     * Reset every counter, timer and gauge, used when the capture stops.
+     * The framerate reported by the device is kept, it's not measured by the capture pipeline.
+     */
+    public static synchronized void reset() {
+
+        counters.values().forEach(Counter::sumThenReset);
+        gauges.values().stream().filter(gauge -> gauge != FPS_GW_CONSUMER).forEach(gauge -> gauge.set(0));
+        timers.values().forEach(Timer::snapshotAndReset);
+
+    }
+
+    /**
+     * Striped counter
+     */
+    @RequiredArgsConstructor
+    public static class Counter {
+
+        @Getter
+        private final String name;
+        private final LongAdder adder = new LongAdder();
+
+        public void increment() {
+            adder.increment();
+        }
+
+        public void add(long value) {
+            adder.add(value);
+        }
+
+        /**
+         * Current value, without resetting the counter
+         * @return value since the last snapshot
+         */
+        public long sum() {
+            return adder.sum();
+        }
+
+        long sumThenReset() {
+            return adder.sumThenReset();
+        }
+
+    }
+
+    /**
+     * Last value of a measure, written by one thread and read by many
+     */
+    @RequiredArgsConstructor
+    public static class Gauge {
+
+        @Getter
+        private final String name;
+        private volatile float value;
+
+        public void set(float value) {
+            this.value = value;
+        }
+
+        public float get() {
+            return value;
+        }
+
+    }
+
+    /**
+     * Latency timer, values are recorded in a fixed memory histogram
+     */
+    @RequiredArgsConstructor
+    public static class Timer {
+
+        @Getter
+        private final String name;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        /**
+         * Record a duration
+         * @param nanos duration in nanoseconds
+         */
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+
+        LatencyDto snapshotAndReset() {
+            return histogram.snapshotAndReset();
+        }
+
+    }
+
+    /**
+     * Metrics read at the same time
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+
+        private final Map<String, Long> counters;
+        private final Map<String, Float> gauges;
+        private final Map<String, LatencyDto> timers;
+
+        /**
+         * Counter value in this snapshot
+         * @param counter counter to read
+         * @return value, 0 if nothing has been counted
+         */
+        public long get(Counter counter) {
+            return counters.getOrDefault(counter.getName(), 0L);
+        }
+
+        /**
+         * Gauge value in this snapshot
+         * @param gauge gauge to read
+         * @return value, 0 if the gauge has never been set
+         */
+        public float get(Gauge gauge) {
+            return gauges.getOrDefault(gauge.getName(), 0F);
+        }
+
+        /**
+         * Timer percentiles in this snapshot
+         * @param timer timer to read
+         * @return percentiles, null if nothing has been recorded
+         */
+        public LatencyDto get(Timer timer) {
+            return timers.get(timer.getName());
+        }
+
+        /**
+         * Every metric in this snapshot, for the MQTT framerate topic
+         * @return metrics DTO
+         */
+        public MetricsDto toDto() {
+            return new MetricsDto(counters, gauges, timers);
+        }
+
+        /**
+         * Every metric in this snapshot, for the log
+         * @return readable string
+         */
+        public String toLogString() {
+            StringBuilder sb = new StringBuilder(" --* metrics");
+            counters.forEach((name, value) -> sb.append(" ").append(name).append("=").append(value));
+            gauges.forEach((name, value) -> sb.append(" ").append(name).append("=").append(value));
+            timers.forEach((name, latency) -> sb.append(" ").append(name).append(" p50=").append(latency.getP50())
+                    .append("us p99=").append(latency.getP99()).append("us"));
+            return sb.append(" *-- ").toString();
+        }
+
+    }
+
+}
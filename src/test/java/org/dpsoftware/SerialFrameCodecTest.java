@@ -0,0 +1,243 @@
+/*
+  SerialFrameCodecTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compressed serial packets, the encoder output is checked against the reference decoder
+ */
+class SerialFrameCodecTest {
+
+    private static final int LED_NUMBER = 300;
+    private SerialFrameCodec.Encoder encoder;
+    private SerialFrameCodec.Decoder decoder;
+    private byte[] packet;
+    private final Random random = new Random(42);
+
+    @BeforeEach
+    void setUp() {
+
+        encoder = new SerialFrameCodec.Encoder();
+        decoder = new SerialFrameCodec.Decoder();
+        packet = new byte[SerialFrameCodec.maxPacketSize(LED_NUMBER)];
+
+    }
+
+    @Test
+    void roundTrip() {
+
+        int[] colors = new int[LED_NUMBER];
+        for (int frame = 0; frame < 100; frame++) {
+            nextFrame(colors, frame);
+            int length = encoder.encode(header(LED_NUMBER), colors, LED_NUMBER, packet);
+            assertTrue(decoder.decode(packet, length), "frame " + frame);
+            assertArrayEquals(colors, decoder.getLeds(), "frame " + frame);
+        }
+
+    }
+
+    @Test
+    void keyframeInterval() {
+
+        int[] colors = new int[LED_NUMBER];
+        for (int frame = 0; frame <= Constants.SERIAL_KEYFRAME_INTERVAL * 3; frame++) {
+            nextFrame(colors, frame);
+            encoder.encode(header(LED_NUMBER), colors, LED_NUMBER, packet);
+            assertEquals(frame % Constants.SERIAL_KEYFRAME_INTERVAL == 0, isKeyframe(packet), "frame " + frame);
+        }
+
+    }
+
+    @Test
+    void forcedKeyframe() {
+
+        int[] colors = new int[LED_NUMBER];
+        encoder.encode(header(LED_NUMBER), colors, LED_NUMBER, packet);
+        encoder.encode(header(LED_NUMBER), colors, LED_NUMBER, packet);
+        assertFalse(isKeyframe(packet));
+        encoder.forceKeyframe();
+        encoder.encode(header(LED_NUMBER), colors, LED_NUMBER, packet);
+        assertTrue(isKeyframe(packet));
+
+    }
+
+    @Test
+    void resyncAfterDroppedPacket() {
+
+        int[] colors = new int[LED_NUMBER];
+        int dropped = 5;
+        for (int frame = 0; frame <= Constants.SERIAL_KEYFRAME_INTERVAL; frame++) {
+            nextFrame(colors, frame);
+            int length = encoder.encode(header(LED_NUMBER), colors, LED_NUMBER, packet);
+            if (frame == dropped) {
+                continue;
+            }
+            boolean applied = decoder.decode(packet, length);
+            // Deltas after the lost packet are refused until the next keyframe
+            assertEquals(frame < dropped || frame == Constants.SERIAL_KEYFRAME_INTERVAL, applied, "frame " + frame);
+            if (applied) {
+                assertArrayEquals(colors, decoder.getLeds(), "frame " + frame);
+            }
+        }
+
+    }
+
+    @Test
+    void resyncAfterCorruptedPacket() {
+
+        int[] colors = new int[LED_NUMBER];
+        int corrupted = 5;
+        for (int frame = 0; frame <= Constants.SERIAL_KEYFRAME_INTERVAL; frame++) {
+            nextFrame(colors, frame);
+            int length = encoder.encode(header(LED_NUMBER), colors, LED_NUMBER, packet);
+            if (frame == corrupted) {
+                packet[SerialWriter.HEADER_SIZE + SerialFrameCodec.PREAMBLE_SIZE + 1] ^= 0x10;
+            }
+            boolean applied = decoder.decode(packet, length);
+            assertEquals(frame < corrupted || frame == Constants.SERIAL_KEYFRAME_INTERVAL, applied, "frame " + frame);
+            if (applied) {
+                assertArrayEquals(colors, decoder.getLeds(), "frame " + frame);
+            }
+        }
+
+    }
+
+    @Test
+    void tokenBounds() {
+
+        int ledNumber = 1000;
+        byte[] bigPacket = new byte[SerialFrameCodec.maxPacketSize(ledNumber)];
+        int[] colors = new int[ledNumber];
+        Arrays.fill(colors, 0x102030);
+        // A solid keyframe is made of the longest runs
+        int length = encoder.encode(header(ledNumber), colors, ledNumber, bigPacket);
+        int[] counts = tokenCounts(bigPacket, length);
+        assertEquals((ledNumber + SerialFrameCodec.MAX_RUN - 1) / SerialFrameCodec.MAX_RUN, counts[0]);
+        assertEquals(0, counts[1]);
+        assertEquals(0, counts[2]);
+        // The same frame again is made of the longest skips
+        length = encoder.encode(header(ledNumber), colors, ledNumber, bigPacket);
+        counts = tokenCounts(bigPacket, length);
+        assertEquals(0, counts[0]);
+        assertEquals(0, counts[1]);
+        assertEquals((ledNumber + SerialFrameCodec.MAX_SKIP - 1) / SerialFrameCodec.MAX_SKIP, counts[2]);
+        // Noise is made of the longest literals
+        for (int i = 0; i < ledNumber; i++) {
+            colors[i] = (i * 0x010305) & 0xFFFFFF;
+        }
+        encoder.forceKeyframe();
+        length = encoder.encode(header(ledNumber), colors, ledNumber, bigPacket);
+        counts = tokenCounts(bigPacket, length);
+        assertEquals(0, counts[0]);
+        assertEquals((ledNumber + SerialFrameCodec.MAX_RUN - 1) / SerialFrameCodec.MAX_RUN, counts[1]);
+        assertEquals(0, counts[2]);
+        assertTrue(decoder.decode(bigPacket, length));
+        assertArrayEquals(colors, decoder.getLeds());
+
+    }
+
+    /**
+     * Next frame of a scene with solid areas, gradients, noise and LEDs that don't change
+     * @param colors frame to update
+     * @param frame  frame number
+     */
+    private void nextFrame(int[] colors, int frame) {
+
+        for (int i = 0; i < colors.length; i++) {
+            if (i < 60) {
+                colors[i] = frame % 10 == 0 ? random.nextInt(0x1000000) : colors[i];
+            } else if (i < 150) {
+                colors[i] = LEDFrame.pack(frame, i, 255 - frame);
+            } else if (i < 200) {
+                colors[i] = random.nextInt(0x1000000);
+            } else {
+                colors[i] = 0x0000FF;
+            }
+        }
+
+    }
+
+    /**
+     * Raw DPsoftware header, LED count and checksum are the only fields read by the decoder
+     * @param ledNumber number of LEDs
+     * @return header
+     */
+    private static byte[] header(int ledNumber) {
+
+        byte[] header = new byte[SerialWriter.HEADER_SIZE];
+        header[6] = (byte) ((ledNumber - 1) >> 8);
+        header[7] = (byte) (ledNumber - 1);
+        int checksum = 0x55;
+        for (int i = 6; i < SerialWriter.HEADER_SIZE - 1; i++) {
+            checksum ^= header[i] & 0xFF;
+        }
+        header[SerialWriter.HEADER_SIZE - 1] = (byte) checksum;
+        return header;
+
+    }
+
+    private static boolean isKeyframe(byte[] packet) {
+
+        return (packet[SerialWriter.HEADER_SIZE] & SerialFrameCodec.FLAG_KEYFRAME) != 0;
+
+    }
+
+    /**
+     * Walk the payload tokens, every token must be within its bounds
+     * @param packet encoded packet
+     * @param length packet length
+     * @return number of RUN, LITERAL and SKIP tokens
+     */
+    private static int[] tokenCounts(byte[] packet, int length) {
+
+        int[] counts = new int[3];
+        int j = SerialWriter.HEADER_SIZE + SerialFrameCodec.PREAMBLE_SIZE;
+        while (j < length - 1) {
+            int token = packet[j++] & 0xFF;
+            if ((token & SerialFrameCodec.SKIP) != 0) {
+                assertTrue((token & 0x7F) + 1 <= SerialFrameCodec.MAX_SKIP);
+                counts[2]++;
+            } else if ((token & SerialFrameCodec.LITERAL) != 0) {
+                int count = (token & 0x3F) + 1;
+                assertTrue(count <= SerialFrameCodec.MAX_RUN);
+                j += count * 3;
+                counts[1]++;
+            } else {
+                assertTrue((token & 0x3F) + 1 <= SerialFrameCodec.MAX_RUN);
+                j += 3;
+                counts[0]++;
+            }
+        }
+        assertEquals(length - 1, j);
+        return counts;
+
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+  ColorCorrectionTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Color correction tables, checked against the Math.pow formula they replace
+ */
+@Slf4j
+class ColorCorrectionTest {
+
+    private static final double[] GAMMAS = {1.0, 1.8, 2.2, 2.5};
+
+    @Test
+    void tablesMatchGammaFormula() {
+
+        for (double gamma : GAMMAS) {
+            ColorCorrection colorCorrection = ColorCorrection.rebuild(gamma);
+            for (int value = 0; value < 256; value++) {
+                int expected = gammaCorrection(value, gamma);
+                assertEquals(LEDFrame.pack(expected, expected, expected), colorCorrection.correct(value, value, value, false),
+                        "gamma " + gamma + ", value " + value);
+            }
+        }
+
+    }
+
+    @Test
+    void eyeCareFloor() {
+
+        ColorCorrection colorCorrection = ColorCorrection.rebuild(1.0);
+        int floor = Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2;
+        assertEquals(LEDFrame.pack(floor, floor, floor), colorCorrection.correct(3, 3, 3, true));
+        assertEquals(LEDFrame.pack(3, 3, 3), colorCorrection.correct(3, 3, 3, false));
+        assertEquals(LEDFrame.pack(200, 10, 0), colorCorrection.correct(200, 10, 0, true));
+
+    }
+
+    /**
+     * Per LED cost of the lookup tables and of the Math.pow path they replace, same input for both.
+     * Run with: mvn test -Pbenchmark -Dtest=ColorCorrectionTest
+     */
+    @Test
+    @Tag("benchmark")
+    void lookupVersusPow() {
+
+        int ledNumber = Integer.getInteger("benchmark.leds", 300);
+        int frames = Integer.getInteger("benchmark.frames", 20_000);
+        double gamma = 2.2;
+        int[] channels = new int[ledNumber * 3];
+        Random random = new Random(42);
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = random.nextInt(256);
+        }
+        ColorCorrection colorCorrection = ColorCorrection.rebuild(gamma);
+        // Warm up both paths so both are measured after JIT compilation
+        long checksum = lookup(colorCorrection, channels, frames / 4) + pow(gamma, channels, frames / 4);
+        long start = System.nanoTime();
+        long lookupChecksum = lookup(colorCorrection, channels, frames);
+        long lookupNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        long powChecksum = pow(gamma, channels, frames);
+        long powNanos = System.nanoTime() - start;
+        log.info(String.format("Color correction, %d LEDs: lookup %.2f ns/LED, Math.pow %.2f ns/LED (checksum %d)", ledNumber,
+                (double) lookupNanos / ((long) frames * ledNumber), (double) powNanos / ((long) frames * ledNumber), checksum));
+        assertEquals(powChecksum, lookupChecksum);
+
+    }
+
+    private static long lookup(ColorCorrection colorCorrection, int[] channels, int frames) {
+
+        long checksum = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int i = 0; i < channels.length; i += 3) {
+                checksum += colorCorrection.correct(channels[i], channels[i + 1], channels[i + 2], true);
+            }
+        }
+        return checksum;
+
+    }
+
+    private static long pow(double gamma, int[] channels, int frames) {
+
+        long checksum = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int i = 0; i < channels.length; i += 3) {
+                int r = gammaCorrection(channels[i], gamma);
+                int g = gammaCorrection(channels[i + 1], gamma);
+                int b = gammaCorrection(channels[i + 2], gamma);
+                if ((r + g + b) < 10) {
+                    r = g = b = (Constants.DEEP_BLACK_CHANNEL_TOLERANCE * 2);
+                }
+                checksum += LEDFrame.pack(r, g, b);
+            }
+        }
+        return checksum;
+
+    }
+
+    /**
+     * Gamma correction as it was computed for every LED before the lookup tables
+     * @param color channel value
+     * @param gamma gamma
+     * @return corrected channel value
+     */
+    private static int gammaCorrection(int color, double gamma) {
+
+        return (int) (255.0 * Math.pow((color / 255.0), gamma));
+
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+  SamplingPlanTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.IntBuffer;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LED zone averaging: the 6x6 grid of the CPU/WinAPI capture (ImageProcessor.getAverageColor),
+ * the square sampled by the GStreamer capture (SamplingPlan.sample) and the full zone summed area table
+ * (SamplingPlan.sampleFullZones), checked against the true mean of the pixels inside every LED zone
+ */
+@Slf4j
+class SamplingPlanTest {
+
+    private static final int[][] SCREENS = {{1920, 1080}, {3840, 2160}};
+    private static final int[] LED_NUMBERS = {100, 300, 1000};
+    private Configuration savedConfig;
+
+    @BeforeEach
+    void setUp() {
+
+        savedConfig = FireflyLuciferin.config;
+        FireflyLuciferin.config = new Configuration();
+        // Grid sampler reads LED coordinates as screen pixels, as for the WinAPI capture
+        FireflyLuciferin.config.setCaptureMethod(Configuration.CaptureMethod.WinAPI.name());
+
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        FireflyLuciferin.config = savedConfig;
+
+    }
+
+    @Test
+    void summedAreaTableMatchesZoneMean() {
+
+        int width = 240;
+        int height = 135;
+        LinkedHashMap<Integer, LEDCoordinate> ledMatrix = new LinkedHashMap<>();
+        ledMatrix.put(1, new LEDCoordinate(80, 80, 80));
+        ledMatrix.put(2, new LEDCoordinate(403, 245, 125));
+        // Zones crossing the right and bottom edges are clamped to the frame
+        ledMatrix.put(3, new LEDCoordinate(1880, 1040, 120));
+        ledMatrix.put(4, new LEDCoordinate(0, 0, 4));
+        int[] pixels = randomFrame(width, height, new Random(42));
+        SamplingPlan samplingPlan = new SamplingPlan(Constants.AspectRatio.FULLSCREEN.getAspectRatio(), ledMatrix, width, height);
+        SummedAreaTable summedAreaTable = new SummedAreaTable(width, height);
+        summedAreaTable.build(IntBuffer.wrap(pixels));
+        LEDFrame leds = new LEDFrame(samplingPlan.getLedNumber());
+        samplingPlan.sampleFullZones(summedAreaTable, leds, ColorCorrection.rebuild(1.0), false);
+        for (int key = 1; key <= ledMatrix.size(); key++) {
+            LEDCoordinate ledCoordinate = ledMatrix.get(key);
+            int x0 = Math.min(ledCoordinate.getX() / Constants.RESAMPLING_FACTOR, width - 1);
+            int y0 = Math.min(ledCoordinate.getY() / Constants.RESAMPLING_FACTOR, height - 1);
+            int x1 = Math.max(x0 + 1, Math.min((ledCoordinate.getX() + ledCoordinate.getDimension()) / Constants.RESAMPLING_FACTOR, width));
+            int y1 = Math.max(y0 + 1, Math.min((ledCoordinate.getY() + ledCoordinate.getDimension()) / Constants.RESAMPLING_FACTOR, height));
+            assertEquals(rectangleMean(pixels, width, x0, y0, x1, y1), leds.get(key - 1), "LED " + key);
+        }
+
+    }
+
+    @Test
+    void summedAreaTableIsClosestToZoneMean() {
+
+        int screenWidth = 1920;
+        int screenHeight = 1080;
+        int[] screen = syntheticScreen(screenWidth, screenHeight, new Random(42));
+        int[] frame = downscale(screen, screenWidth, screenHeight);
+        for (int ledNumber : LED_NUMBERS) {
+            Zones zones = new Zones(screen, screenWidth, screenHeight, ledNumber);
+            double[] gridError = zones.error(zones.grid(screen));
+            double[] squareError = zones.error(zones.square(frame));
+            double[] fullZoneError = zones.error(zones.fullZone(frame));
+            assertTrue(fullZoneError[0] < gridError[0], ledNumber + " LEDs, grid error " + gridError[0] + ", full zone " + fullZoneError[0]);
+            assertTrue(fullZoneError[0] < squareError[0], ledNumber + " LEDs, square error " + squareError[0] + ", full zone " + fullZoneError[0]);
+        }
+
+    }
+
+    /**
+     * Time spent averaging a frame and mean/max error against the true zone mean, for every sampler,
+     * screen resolution and LED count. Errors are in 0-255 channel units, gamma is 1.0.
+     * The GStreamer samplers run on the screen downscaled by RESAMPLING_FACTOR as the GPU does,
+     * the summed area table time includes the table build.
+     * Run with: mvn test -Pbenchmark -Dtest=SamplingPlanTest
+     */
+    @Test
+    @Tag("benchmark")
+    void averagingCostAndError() {
+
+        int frames = Integer.getInteger("benchmark.frames", 2_000);
+        for (int[] screenSize : SCREENS) {
+            int screenWidth = screenSize[0];
+            int screenHeight = screenSize[1];
+            int[] screen = syntheticScreen(screenWidth, screenHeight, new Random(42));
+            int[] frame = downscale(screen, screenWidth, screenHeight);
+            for (int ledNumber : LED_NUMBERS) {
+                Zones zones = new Zones(screen, screenWidth, screenHeight, ledNumber);
+                report(zones, "grid 6x6", zones.error(zones.grid(screen)), time(frames, () -> zones.grid(screen)));
+                report(zones, "square", zones.error(zones.square(frame)), time(frames, () -> zones.square(frame)));
+                report(zones, "summed area table", zones.error(zones.fullZone(frame)), time(frames, () -> zones.fullZone(frame)));
+            }
+        }
+
+    }
+
+    /**
+     * LED matrix of a screen with the three samplers ready to run and the true mean of every zone
+     */
+    private static class Zones {
+
+        private final int screenWidth;
+        private final int screenHeight;
+        private final int width;
+        private final int height;
+        private final LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
+        private final SamplingPlan samplingPlan;
+        private final SummedAreaTable summedAreaTable;
+        private final ColorCorrection colorCorrection = ColorCorrection.rebuild(1.0);
+        private final int[] zoneMean;
+
+        Zones(int[] screen, int screenWidth, int screenHeight, int ledNumber) {
+
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+            this.width = screenWidth / Constants.RESAMPLING_FACTOR;
+            this.height = screenHeight / Constants.RESAMPLING_FACTOR;
+            int top = (ledNumber * 3) / 10;
+            int side = ledNumber / 5;
+            int bottom = (ledNumber - top - (side * 2)) / 2;
+            ledMatrix = new LEDCoordinate().initFullScreenLedMatrix(screenWidth, screenHeight, bottom, side, top, side, bottom, 0, true);
+            samplingPlan = new SamplingPlan(Constants.AspectRatio.FULLSCREEN.getAspectRatio(), ledMatrix, width, height);
+            summedAreaTable = new SummedAreaTable(width, height);
+            zoneMean = new int[ledMatrix.size()];
+            for (int key = 1; key <= ledMatrix.size(); key++) {
+                LEDCoordinate ledCoordinate = ledMatrix.get(key);
+                int x0 = Math.max(0, Math.min(ledCoordinate.getX(), screenWidth - 1));
+                int y0 = Math.max(0, Math.min(ledCoordinate.getY(), screenHeight - 1));
+                int x1 = Math.max(x0 + 1, Math.min(ledCoordinate.getX() + ledCoordinate.getDimension(), screenWidth));
+                int y1 = Math.max(y0 + 1, Math.min(ledCoordinate.getY() + ledCoordinate.getDimension(), screenHeight));
+                zoneMean[key - 1] = rectangleMean(screen, screenWidth, x0, y0, x1, y1);
+            }
+
+        }
+
+        LEDFrame grid(int[] screen) {
+
+            LEDFrame leds = new LEDFrame(ledMatrix.size());
+            for (int led = 0; led < ledMatrix.size(); led++) {
+                leds.set(led, ImageProcessor.getAverageColor(screen, screenWidth, screenHeight, ledMatrix.get(led + 1), 100, colorCorrection, false));
+            }
+            return leds;
+
+        }
+
+        LEDFrame square(int[] frame) {
+
+            LEDFrame leds = new LEDFrame(samplingPlan.getLedNumber());
+            samplingPlan.sample(IntBuffer.wrap(frame), leds, colorCorrection, false);
+            return leds;
+
+        }
+
+        LEDFrame fullZone(int[] frame) {
+
+            LEDFrame leds = new LEDFrame(samplingPlan.getLedNumber());
+            summedAreaTable.build(IntBuffer.wrap(frame));
+            samplingPlan.sampleFullZones(summedAreaTable, leds, colorCorrection, false);
+            return leds;
+
+        }
+
+        /**
+         * Error of the averaged colors against the true zone mean
+         * @param leds averaged colors
+         * @return mean and max absolute error of a channel
+         */
+        double[] error(LEDFrame leds) {
+
+            long total = 0;
+            int max = 0;
+            for (int led = 0; led < zoneMean.length; led++) {
+                int expected = zoneMean[led];
+                int[] diffs = {Math.abs(leds.getRed(led) - ((expected >> 16) & 0xFF)),
+                        Math.abs(leds.getGreen(led) - ((expected >> 8) & 0xFF)),
+                        Math.abs(leds.getBlue(led) - (expected & 0xFF))};
+                for (int diff : diffs) {
+                    total += diff;
+                    max = Math.max(max, diff);
+                }
+            }
+            return new double[]{(double) total / (zoneMean.length * 3), max};
+
+        }
+
+    }
+
+    private static double time(int frames, Runnable averaging) {
+
+        for (int i = 0; i < frames / 4; i++) {
+            averaging.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            averaging.run();
+        }
+        return (System.nanoTime() - start) / (frames * 1000.0);
+
+    }
+
+    private static void report(Zones zones, String sampler, double[] error, double micros) {
+
+        log.info(String.format("%dx%d, %4d LEDs, %-17s: %7.1f us per frame, mean error %5.2f, max error %3.0f",
+                zones.screenWidth, zones.screenHeight, zones.zoneMean.length, sampler, micros, error[0], error[1]));
+
+    }
+
+    /**
+     * Mean color of a rectangle, right and bottom edges excluded
+     * @return mean color packed as 0xRRGGBB
+     */
+    private static int rectangleMean(int[] pixels, int width, int x0, int y0, int x1, int y1) {
+
+        long r = 0, g = 0, b = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int rgb = pixels[(y * width) + x];
+                r += (rgb >> 16) & 0xFF;
+                g += (rgb >> 8) & 0xFF;
+                b += rgb & 0xFF;
+            }
+        }
+        long area = (long) (x1 - x0) * (y1 - y0);
+        return LEDFrame.pack((int) (r / area), (int) (g / area), (int) (b / area));
+
+    }
+
+    /**
+     * Screen made of flat color shapes with some noise, shapes are not aligned with the LED zones
+     */
+    private static int[] syntheticScreen(int width, int height, Random random) {
+
+        int blockWidth = 37, blockHeight = 29;
+        int columns = (width / blockWidth) + 1;
+        int[] blocks = new int[columns * ((height / blockHeight) + 1)];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = random.nextInt(0x1000000);
+        }
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int block = blocks[((y / blockHeight) * columns) + (x / blockWidth)];
+                int noise = random.nextInt(17) - 8;
+                pixels[(y * width) + x] = LEDFrame.pack(clamp(((block >> 16) & 0xFF) + noise),
+                        clamp(((block >> 8) & 0xFF) + noise), clamp((block & 0xFF) + noise));
+            }
+        }
+        return pixels;
+
+    }
+
+    /**
+     * Box downscale by RESAMPLING_FACTOR, as the GPU does before the GStreamer frame reaches the app sink
+     */
+    private static int[] downscale(int[] screen, int screenWidth, int screenHeight) {
+
+        int factor = Constants.RESAMPLING_FACTOR;
+        int width = screenWidth / factor;
+        int height = screenHeight / factor;
+        int[] frame = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                frame[(y * width) + x] = rectangleMean(screen, screenWidth, x * factor, y * factor, (x + 1) * factor, (y + 1) * factor);
+            }
+        }
+        return frame;
+
+    }
+
+    private static int[] randomFrame(int width, int height, Random random) {
+
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(0x1000000);
+        }
+        return pixels;
+
+    }
+
+    private static int clamp(int channel) {
+
+        return Math.max(0, Math.min(255, channel));
+
+    }
+
+}
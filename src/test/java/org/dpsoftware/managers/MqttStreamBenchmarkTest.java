@@ -0,0 +1,351 @@
+/*
+  MqttStreamBenchmarkTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.managers.dto.LatencyDto;
+import org.dpsoftware.managers.dto.MqttBenchmarkDto;
+import org.dpsoftware.output.MqttOutputSink;
+import org.dpsoftware.utilities.LatencyHistogram;
+import org.dpsoftware.utilities.MetricsRegistry;
+import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MQTT stream benchmark, it measures the stream path without a Glow Worm device.
+ * Synthetic frames are sent through MqttOutputSink and MQTTManager.stream at a fixed rate, a subscriber stands in
+ * for the device and records when the last chunk of every frame arrives.
+ * Every LED of frame N has color (N + LED index), so every chunk is matched to its frame from its part or offset
+ * and its first LED, lost and reordered chunks can't be matched with the wrong frame.
+ * For every max payload, format and LED count it reports frames per second, bytes per frame and the latency percentiles.
+ * Run with: mvn test -Pbenchmark [-Dbenchmark.leds=200,680,1500] [-Dbenchmark.fps=60] [-Dbenchmark.seconds=10]
+ * [-Dbenchmark.payloads=0,5120] [-Dbenchmark.formats=text,json,binary] [-Dbenchmark.broker=tcp://host:1883]
+ * An in process Moquette broker on localhost is used when no broker is given.
+ */
+@Slf4j
+@Tag("benchmark")
+class MqttStreamBenchmarkTest {
+
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+    private static final int FRAME_INDEX_MASK = 0xFFFFFF;
+    private static final String TEXT = "text";
+    private static final String JSON = "json";
+    private static final String BINARY = "binary";
+    // Max payload benchmarked with the fixed parts, fits the default message size of most brokers
+    private static final int SUGGESTED_MAX_PAYLOAD = 5120;
+
+    private static Server broker;
+    private static MqttClient subscriber;
+    // Globals replaced by the benchmark, restored when it ends
+    private static Configuration savedConfig;
+    private static MqttClient savedClient;
+    private static MqttAsyncClient savedStreamClient;
+
+    // Frames published and not fully received yet, by frame index
+    private final Map<Integer, PendingFrame> pendingFrames = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final ObjectMapper mapper = new ObjectMapper();
+    // Format of the current run, read by the subscriber thread
+    private volatile String format;
+    private volatile int maxPayload;
+
+    /**
+     * Start the broker if needed and connect the stream clients and the subscriber
+     * @throws Exception can't start the broker or connect to it
+     */
+    @BeforeAll
+    static void connect() throws Exception {
+
+        savedConfig = FireflyLuciferin.config;
+        savedClient = MQTTManager.client;
+        savedStreamClient = MQTTManager.streamClient;
+        String brokerUrl = System.getProperty("benchmark.broker");
+        if (brokerUrl == null) {
+            brokerUrl = startBroker();
+        }
+        FireflyLuciferin.config = new Configuration();
+        FireflyLuciferin.config.setMqttEnable(true);
+        FireflyLuciferin.config.setMqttStream(true);
+        FireflyLuciferin.config.setMqttServer(brokerUrl);
+        FireflyLuciferin.config.setMqttTopic(Constants.DEFAULT_MQTT_TOPIC);
+        FireflyLuciferin.config.setBrightness(255);
+        MqttConnectOptions connOpts = new MqttConnectOptions();
+        connOpts.setCleanSession(true);
+        connOpts.setMaxInflight(1000);
+        MQTTManager.client = new MqttClient(brokerUrl, Constants.MQTT_DEVICE_NAME_LIN + "_benchmark", new MemoryPersistence());
+        MQTTManager.client.connect(connOpts);
+        MQTTManager.streamClient = new MqttAsyncClient(brokerUrl, Constants.MQTT_DEVICE_NAME_LIN + "_benchmark"
+                + Constants.MQTT_STREAM_CLIENT_SUFFIX, new MemoryPersistence());
+        MQTTManager.streamClient.connect(connOpts).waitForCompletion();
+        subscriber = new MqttClient(brokerUrl, Constants.MQTT_BASE_TOPIC + "_benchmark", new MemoryPersistence());
+        subscriber.connect(connOpts);
+
+    }
+
+    /**
+     * Disconnect every client, stop the broker and restore the globals
+     */
+    @AfterAll
+    static void disconnect() {
+
+        try {
+            subscriber.disconnect();
+            subscriber.close();
+            MQTTManager.streamClient.disconnect().waitForCompletion();
+            MQTTManager.streamClient.close();
+            MQTTManager.client.disconnect();
+            MQTTManager.client.close();
+        } catch (MqttException e) {
+            log.error(e.getMessage());
+        } finally {
+            if (broker != null) {
+                broker.stopServer();
+            }
+            FireflyLuciferin.config = savedConfig;
+            MQTTManager.client = savedClient;
+            MQTTManager.streamClient = savedStreamClient;
+        }
+
+    }
+
+    /**
+     * Run the benchmark for every max payload, format and LED count
+     * @throws MqttException can't subscribe to the stream topic
+     */
+    @Test
+    void streamThroughput() throws MqttException {
+
+        subscriber.subscribe(MQTTManager.getStreamTopic(), 0, (topic, message) -> received(message));
+        int framerate = Integer.getInteger("benchmark.fps", 60);
+        int seconds = Integer.getInteger("benchmark.seconds", 10);
+        for (String payload : System.getProperty("benchmark.payloads", "0," + SUGGESTED_MAX_PAYLOAD).split(",")) {
+            for (String streamFormat : System.getProperty("benchmark.formats", TEXT + "," + JSON + "," + BINARY).split(",")) {
+                for (String leds : System.getProperty("benchmark.leds", "200,680,1500").split(",")) {
+                    MqttBenchmarkDto result = run(streamFormat.trim(), Integer.parseInt(payload.trim()), Integer.parseInt(leds.trim()), framerate, seconds);
+                    LatencyDto frameLatency = result.getLatency();
+                    log.info(String.format("%-6s payload %5d, %5d LEDs, %d chunks: %.1f FPS, %d bytes/frame, sent %d, received %d, dropped %d, lost %d, latency p50 %s us, p99 %s us, max %s us",
+                            result.getFormat(), result.getMaxPayload(), result.getLedNumber(), result.getChunks(), result.getFramesPerSecond(),
+                            result.getBytesPerFrame(), result.getFramesSent(), result.getFramesReceived(), result.getFramesDropped(), result.getFramesLost(),
+                            frameLatency == null ? "-" : frameLatency.getP50(), frameLatency == null ? "-" : frameLatency.getP99(),
+                            frameLatency == null ? "-" : frameLatency.getMax()));
+                    assertTrue(result.getFramesReceived() > 0, "no frame received");
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Stream synthetic frames and measure what the subscriber receives
+     * @param streamFormat text, json or binary
+     * @param payload      max payload size in bytes, 0 for the fixed parts
+     * @param ledNumber    number of LEDs of the synthetic frames
+     * @param framerate    frames per second to send
+     * @param seconds      duration of the run
+     * @return benchmark result
+     */
+    private MqttBenchmarkDto run(String streamFormat, int payload, int ledNumber, int framerate, int seconds) {
+
+        boolean binaryStream = BINARY.equals(streamFormat);
+        FireflyLuciferin.config.setMqttBinaryStream(binaryStream);
+        FireflyLuciferin.config.setMqttJsonStream(JSON.equals(streamFormat));
+        FireflyLuciferin.config.setMqttStreamMaxPayload(payload);
+        format = streamFormat;
+        maxPayload = MqttOutputSink.getMaxPayload();
+        MqttOutputSink sink = new MqttOutputSink();
+        int chunks = MqttOutputSink.getChunkCount(ledNumber, maxPayload, binaryStream);
+        pendingFrames.clear();
+        latency.snapshotAndReset();
+        framesReceived.set(0);
+        bytesReceived.set(0);
+        LEDFrame frame = new LEDFrame(ledNumber);
+        long frameInterval = TimeUnit.SECONDS.toNanos(1) / framerate;
+        int framesToSend = framerate * seconds;
+        long framesDropped = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < framesToSend; i++) {
+            LockSupport.parkNanos((start + (i * frameInterval)) - System.nanoTime());
+            fill(frame, i);
+            // Queued before publishing, the subscriber may receive the frame before send returns
+            int frameIndex = i & FRAME_INDEX_MASK;
+            pendingFrames.put(frameIndex, new PendingFrame(System.nanoTime(), chunks));
+            long droppedBefore = MetricsRegistry.MQTT_STREAM_DROPPED.sum();
+            sink.send(frame);
+            if (MetricsRegistry.MQTT_STREAM_DROPPED.sum() != droppedBefore) {
+                pendingFrames.remove(frameIndex);
+                framesDropped++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT;
+        while (!pendingFrames.isEmpty() && System.nanoTime() - drainDeadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        long received = framesReceived.get();
+        return new MqttBenchmarkDto(streamFormat, maxPayload, ledNumber, chunks,
+                framesToSend, received, framesDropped, pendingFrames.size(),
+                (received * (double) TimeUnit.SECONDS.toNanos(1)) / elapsed,
+                received == 0 ? 0 : bytesReceived.get() / received, latency.snapshotAndReset());
+
+    }
+
+    /**
+     * Message received by the subscriber, a frame is received when its last chunk arrives
+     * @param message MQTT message
+     */
+    private void received(MqttMessage message) {
+
+        long now = System.nanoTime();
+        byte[] payload = message.getPayload();
+        bytesReceived.addAndGet(payload.length);
+        int frameIndex = frameIndexOf(payload);
+        PendingFrame pendingFrame = frameIndex < 0 ? null : pendingFrames.get(frameIndex);
+        if (pendingFrame != null && pendingFrame.chunksLeft.decrementAndGet() == 0 && pendingFrames.remove(frameIndex, pendingFrame)) {
+            latency.record(now - pendingFrame.sentNanos);
+            framesReceived.incrementAndGet();
+        }
+
+    }
+
+    /**
+     * Index of the frame a chunk belongs to, from the chunk offset and the color of its first LED
+     * @param payload chunk
+     * @return frame index, -1 if the chunk carries no LED
+     */
+    private int frameIndexOf(byte[] payload) {
+
+        int offset;
+        int firstColor;
+        if (BINARY.equals(format)) {
+            int headerSize = maxPayload > 0 ? MqttOutputSink.BINARY_CHUNK_HEADER_SIZE : MqttOutputSink.BINARY_HEADER_SIZE;
+            if (payload.length < headerSize + 3) {
+                return -1;
+            }
+            offset = maxPayload > 0 ? ((payload[6] & 0xFF) << 8) | (payload[7] & 0xFF) : 0;
+            firstColor = ((payload[headerSize] & 0xFF) << 16) | ((payload[headerSize + 1] & 0xFF) << 8) | (payload[headerSize + 2] & 0xFF);
+        } else if (JSON.equals(format)) {
+            try {
+                JsonNode chunk = mapper.readTree(payload);
+                JsonNode stream = chunk.get("stream");
+                if (stream == null || stream.isEmpty()) {
+                    return -1;
+                }
+                offset = chunk.has("offset") ? chunk.get("offset").asInt() : (chunk.get("part").asInt() - 1) * Constants.FIRST_CHUNK;
+                firstColor = stream.get(0).asInt();
+            } catch (IOException e) {
+                log.error(e.getMessage());
+                return -1;
+            }
+        } else {
+            // lednum,brightness,first color,...
+            String[] fields = new String(payload, StandardCharsets.US_ASCII).split(",", 4);
+            if (fields.length < 4) {
+                return -1;
+            }
+            offset = 0;
+            firstColor = Integer.parseInt(fields[2]);
+        }
+        return (firstColor - offset) & FRAME_INDEX_MASK;
+
+    }
+
+    /**
+     * Synthetic frame, every LED carries the frame index plus its own index
+     * @param frame frame to fill
+     * @param index frame number
+     */
+    private static void fill(LEDFrame frame, int index) {
+
+        for (int i = 0; i < frame.size(); i++) {
+            frame.set(i, (index + i) & FRAME_INDEX_MASK);
+        }
+
+    }
+
+    /**
+     * Start a Moquette broker on a free localhost port, without persistence
+     * @return broker URL
+     * @throws IOException can't start the broker
+     */
+    private static String startBroker() throws IOException {
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Properties properties = new Properties();
+        properties.setProperty("host", "127.0.0.1");
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("allow_anonymous", "true");
+        properties.setProperty("persistence_enabled", "false");
+        properties.setProperty("persistent_store", "");
+        // The last fixed JSON part of big strips is bigger than the default 8 KB limit
+        properties.setProperty("netty.mqtt.message_size", String.valueOf(1024 * 1024));
+        broker = new Server();
+        broker.startServer(new MemoryConfig(properties));
+        return "tcp://127.0.0.1:" + port;
+
+    }
+
+    /**
+     * Frame published and not fully received yet
+     */
+    private static class PendingFrame {
+
+        private final long sentNanos;
+        private final AtomicInteger chunksLeft;
+
+        PendingFrame(long sentNanos, int chunks) {
+            this.sentNanos = sentNanos;
+            this.chunksLeft = new AtomicInteger(chunks);
+        }
+
+    }
+
+}
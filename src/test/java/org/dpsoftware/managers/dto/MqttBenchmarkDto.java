@@ -0,0 +1,54 @@
+/*
+  MqttBenchmarkDto.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.managers.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Result of an MQTT stream benchmark run
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class MqttBenchmarkDto {
+
+    private String format;
+    // Max payload size in bytes, 0 for the fixed parts
+    private int maxPayload;
+    private int ledNumber;
+    private int chunks;
+    private long framesSent;
+    private long framesReceived;
+    // Frames dropped by the sender because the stream window was full
+    private long framesDropped;
+    // Frames published but never received
+    private long framesLost;
+    private double framesPerSecond;
+    private long bytesPerFrame;
+    // Time between the frame sent and its last chunk received, in microseconds
+    private LatencyDto latency;
+
+}
@@ -0,0 +1,175 @@
+/*
+  UdpStreamTest.java
+
+  Firefly Luciferin, very fast Java Screen Capture software designed
+  for Glow Worm Luciferin firmware.
+
+  Copyright (C) 2020 - 2021  Davide Perini
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.extern.slf4j.Slf4j;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDFrame;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UDP stream, frames sent by UdpOutputSink to a UdpFrameReceiver listening on localhost
+ */
+@Slf4j
+class UdpStreamTest {
+
+    private static final int RECEIVE_TIMEOUT = 1000;
+    private Configuration savedConfig;
+    private UdpFrameReceiver receiver;
+    private InetSocketAddress target;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        savedConfig = FireflyLuciferin.config;
+        FireflyLuciferin.config = new Configuration();
+        FireflyLuciferin.config.setBrightness(200);
+        receiver = new UdpFrameReceiver(InetAddress.getLoopbackAddress(), 0);
+        target = new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getPort());
+
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        receiver.close();
+        FireflyLuciferin.config = savedConfig;
+
+    }
+
+    @Test
+    void multiDatagramFrame() throws IOException {
+
+        int ledNumber = (UdpOutputSink.MAX_LEDS_PER_DATAGRAM * 2) + 76;
+        UdpOutputSink sink = new UdpOutputSink(target, 0);
+        LEDFrame frame = frame(ledNumber, 1);
+        sink.send(frame);
+        assertFalse(receiver.receive(RECEIVE_TIMEOUT));
+        assertFalse(receiver.receive(RECEIVE_TIMEOUT));
+        assertTrue(receiver.receive(RECEIVE_TIMEOUT));
+        assertArrayEquals(frame.getRgb(), receiver.getLeds());
+        assertEquals(200, receiver.getBrightness());
+        assertEquals(0, receiver.getSequence());
+        sink.close();
+
+    }
+
+    @Test
+    void staleSequenceDropped() throws IOException {
+
+        UdpOutputSink newer = new UdpOutputSink(target, 10);
+        UdpOutputSink older = new UdpOutputSink(target, 5);
+        LEDFrame newFrame = frame(30, 1);
+        newer.send(newFrame);
+        assertTrue(receiver.receive(RECEIVE_TIMEOUT));
+        older.send(frame(30, 2));
+        assertFalse(receiver.receive(RECEIVE_TIMEOUT));
+        assertEquals(1, receiver.getStaleDatagrams());
+        assertEquals(10, receiver.getSequence());
+        assertArrayEquals(newFrame.getRgb(), receiver.getLeds());
+        newer.close();
+        older.close();
+
+    }
+
+    @Test
+    void sequenceWrapAround() throws IOException {
+
+        UdpOutputSink sink = new UdpOutputSink(target, 0xFFFF);
+        sink.send(frame(30, 1));
+        assertTrue(receiver.receive(RECEIVE_TIMEOUT));
+        assertEquals(0xFFFF, receiver.getSequence());
+        // Sequence wraps to 0, it's a newer frame
+        LEDFrame wrapped = frame(30, 2);
+        sink.send(wrapped);
+        assertTrue(receiver.receive(RECEIVE_TIMEOUT));
+        assertEquals(0, receiver.getSequence());
+        assertArrayEquals(wrapped.getRgb(), receiver.getLeds());
+        // A frame sent before the wrap is older
+        UdpOutputSink older = new UdpOutputSink(target, 0xFFFE);
+        older.send(frame(30, 3));
+        assertFalse(receiver.receive(RECEIVE_TIMEOUT));
+        assertEquals(1, receiver.getStaleDatagrams());
+        assertEquals(0, receiver.getIncompleteFrames());
+        sink.close();
+        older.close();
+
+    }
+
+    /**
+     * Listen on localhost and log what's received, stream to it by setting the device IP to 127.0.0.1.
+     * Run with: mvn test -Pbenchmark -Dtest=UdpStreamTest [-Dbenchmark.seconds=60]
+     * @throws IOException can't open the socket
+     */
+    @Test
+    @Tag("benchmark")
+    void listen() throws IOException {
+
+        long seconds = Integer.getInteger("benchmark.seconds", 60);
+        try (UdpFrameReceiver localReceiver = new UdpFrameReceiver(InetAddress.getLoopbackAddress(), Constants.UDP_STREAM_PORT)) {
+            long frames = 0;
+            long start = System.currentTimeMillis();
+            long end = start + (seconds * 1000);
+            while (System.currentTimeMillis() < end) {
+                if (localReceiver.receive(1000)) {
+                    frames++;
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed >= 1000) {
+                    log.info("UDP frames: " + ((frames * 1000) / elapsed) + " FPS, LEDs: " + localReceiver.getLeds().length
+                            + ", incomplete frames: " + localReceiver.getIncompleteFrames() + ", stale datagrams: " + localReceiver.getStaleDatagrams());
+                    frames = 0;
+                    start = System.currentTimeMillis();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Frame with a different color on every LED
+     * @param ledNumber number of LEDs
+     * @param seed      first color
+     * @return frame
+     */
+    private static LEDFrame frame(int ledNumber, int seed) {
+
+        LEDFrame frame = new LEDFrame(ledNumber);
+        for (int i = 0; i < ledNumber; i++) {
+            frame.set(i, ((seed * 7919) + (i * 104729)) & 0xFFFFFF);
+        }
+        return frame;
+
+    }
+
+}